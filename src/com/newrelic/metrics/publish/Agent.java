@@ -1,5 +1,7 @@
 package com.newrelic.metrics.publish;
 
+import com.newrelic.metrics.publish.binding.MetricHandle;
+import com.newrelic.metrics.publish.binding.MetricHistogram;
 import com.newrelic.metrics.publish.internal.DataCollector;
 import com.newrelic.metrics.publish.util.Logger;
 
@@ -17,12 +19,19 @@ public abstract class Agent {
 
     private static final String REPORTING_METRIC_MSG = "Reporting metric: ";
 
+    private static final double[] DEFAULT_PERCENTILES = { 50, 95, 99 };
+
     private final String GUID;
     private final String version;
     //TODO in Ruby, this is called a "agent_human_label" but they're really labels for extensions and components
 
     private final DataCollector collector;
 
+    private int pollInterval = 0;
+    private long sampleIntervalInMillis = 0;
+    private int pollDeadline = 0;
+    private String tenant;
+
     /**
      * Constructs an {@code Agent} with provided GUID (Globally Unique Identifier) and version.
      * The GUID should be similar to the reverse of a DNS name; for example: {@code com.some_company.some_plugin_name}
@@ -55,11 +64,57 @@ public abstract class Agent {
     /**
      * A hook called when the {@code Agent} is setup.
      * Subclasses may override but must call {@code super}.
+     * Metrics that are reported every poll cycle can be registered here with {@link #registerMetric(String, String)}.
      */
     public void setupMetrics() {
         logger.debug("Setting up metrics");
     }
 
+    /**
+     * Register a metric with a name and unit(s), and get a {@link MetricHandle} to record it with.
+     * Recording through a handle skips building the metric name and looking it up on every report.
+     * Values recorded between harvests are aggregated into a count, total, min, max and sum of squares.
+     * <p> Call from {@link #setupMetrics()}. The handle stays valid for as long as the {@code Agent} runs.
+     * @param metricName the name of the metric
+     * @param units the units to report
+     * @return MetricHandle the handle to record the metric with
+     * @throws IllegalStateException if called before the {@code Agent} is set up
+     */
+    public MetricHandle registerMetric(String metricName, String units) {
+        return collector.createMetricHandle(metricName, units);
+    }
+
+    /**
+     * Register a metric with a name and unit(s) that is recorded from many threads, such as the request handlers of a service,
+     * rather than from {@link #pollCycle()}.
+     * The returned {@link MetricHandle} is striped by thread, so threads can record at the same time without contending on a lock.
+     * Values recorded from every thread are merged at each harvest.
+     * @param metricName the name of the metric
+     * @param units the units to report
+     * @return MetricHandle the handle to record the metric with
+     * @throws IllegalStateException if called before the {@code Agent} is set up
+     */
+    public MetricHandle registerConcurrentMetric(String metricName, String units) {
+        return collector.createMetricHandle(metricName, units, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Register a histogram metric with a name and unit(s) that is reported as percentiles,
+     * such as {@code Requests/ResponseTime/p99[ms]}.
+     * The returned {@link MetricHistogram} can be recorded from any thread without a lock, and uses a fixed amount of memory.
+     * @param metricName the name of the metric
+     * @param units the units to report
+     * @param percentiles the percentiles to report, 50, 95 and 99 if none are given
+     * @return MetricHistogram the histogram to record the metric with
+     * @throws IllegalStateException if called before the {@code Agent} is set up
+     */
+    public MetricHistogram registerHistogram(String metricName, String units, double... percentiles) {
+        if (percentiles.length == 0) {
+            percentiles = DEFAULT_PERCENTILES;
+        }
+        return collector.createMetricHistogram(metricName, units, percentiles);
+    }
+
     /**
      * Get the GUID (Globally Unique Identifier)
      * @return String the GUID
@@ -76,6 +131,83 @@ public abstract class Agent {
         return version;
     }
 
+    /**
+     * Get the interval in seconds between poll cycles for this {@code Agent}.
+     * Defaults to {@code 0}, which polls the {@code Agent} once per {@link Runner} poll interval.
+     * Subclasses may override to poll cheap targets more often or expensive targets less often.
+     * Metrics reported between deliveries are aggregated into the same request.
+     * @return int the poll interval in seconds
+     */
+    public int getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Set the interval in seconds between poll cycles for this {@code Agent}.
+     * It can also be configured with {@code poll_interval} in the {@code agents} section of {@code plugin.json}.
+     * @param pollInterval the poll interval in seconds
+     * @throws IllegalArgumentException if pollInterval is negative
+     */
+    public void setPollInterval(int pollInterval) {
+        if (pollInterval < 0) {
+            throw new IllegalArgumentException("'pollInterval' must not be negative");
+        }
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Get the interval in milliseconds between samples for this {@code Agent}.
+     * When greater than {@code 0}, {@link #pollCycle()} is called at this rate instead of once per poll interval,
+     * and the reported samples are aggregated locally into count, total, min, max and sum of squares
+     * until they are delivered once per {@link Runner} poll interval.
+     * Defaults to {@code 0}, which disables sampling.
+     * @return long the sample interval in milliseconds
+     */
+    public long getSampleIntervalInMillis() {
+        return sampleIntervalInMillis;
+    }
+
+    /**
+     * Set the interval in milliseconds between samples for this {@code Agent}.
+     * It can also be configured with {@code sample_interval_in_millis} in the {@code agents} section of {@code plugin.json}.
+     * @param sampleIntervalInMillis the sample interval in milliseconds
+     * @throws IllegalArgumentException if sampleIntervalInMillis is negative
+     */
+    public void setSampleIntervalInMillis(long sampleIntervalInMillis) {
+        if (sampleIntervalInMillis < 0) {
+            throw new IllegalArgumentException("'sampleIntervalInMillis' must not be negative");
+        }
+        this.sampleIntervalInMillis = sampleIntervalInMillis;
+    }
+
+    /**
+     * Get the time in seconds a poll cycle of this {@code Agent} may take before metrics are harvested without it.
+     * A poll cycle that misses its deadline keeps running, its metrics are delivered with a later harvest,
+     * and the {@code Agent} is not polled again until it completes.
+     * Deadlines only apply when agents are polled in parallel, see {@code poll_thread_pool_size}.
+     * Defaults to {@code 0}, which is the interval between {@link Runner} ticks.
+     * @return int the poll deadline in seconds
+     */
+    public int getPollDeadline() {
+        return pollDeadline;
+    }
+
+    /**
+     * Set the time in seconds a poll cycle of this {@code Agent} may take before metrics are harvested without it.
+     * It can also be configured with {@code poll_deadline} in the {@code agents} section of {@code plugin.json}.
+     * <p> The deadline is only enforced when agents are polled in parallel. When they are polled sequentially,
+     * the harvest waits for every poll cycle, and a poll cycle that takes longer than the deadline is only counted
+     * as an overrun.
+     * @param pollDeadline the poll deadline in seconds
+     * @throws IllegalArgumentException if pollDeadline is negative
+     */
+    public void setPollDeadline(int pollDeadline) {
+        if (pollDeadline < 0) {
+            throw new IllegalArgumentException("'pollDeadline' must not be negative");
+        }
+        this.pollDeadline = pollDeadline;
+    }
+
     /**
      * A hook called when the {@code Agent} is setup.
      * Subclasses may override but must call {@code super}.
@@ -86,7 +218,7 @@ public abstract class Agent {
 
     /**
      * Report a metric with a name, unit(s) and value.
-     * The {@link Number} value is converted to a {@code float}.
+     * The {@link Number} value is aggregated as a {@code double} and sent as a {@code float}.
      * The count is assumed to be 1, while minValue and maxValue are set to value.
      * Sum of squares is calculated as the value squared.
      * If the value is {@code null}, the reporting is skipped.
@@ -103,7 +235,7 @@ public abstract class Agent {
 
     /**
      * Report a metric with a name, unit(s), count, value, minValue, maxValue and sumOfSquares.
-     * All {@link Number} values are converted to {@code floats}.
+     * All {@link Number} values are aggregated as {@code doubles} and sent as {@code floats}.
      * If any of the values are {@code null}, the reporting is skipped.
      * @param metricName the name of the metric
      * @param units the units to report
@@ -120,6 +252,117 @@ public abstract class Agent {
         }
     }
 
+    /**
+     * Report a metric with a name, unit(s) and {@code float} value, without boxing the value.
+     * The count is assumed to be 1, while minValue and maxValue are set to value.
+     * Sum of squares is calculated as the value squared.
+     * @param metricName the name of the metric
+     * @param units the units to report
+     * @param value the value to report
+     */
+    public void reportMetric(String metricName, String units, float value) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(REPORTING_METRIC_MSG, metricName);
+        }
+        collector.addData(metricName, units, value);
+    }
+
+    /**
+     * Report a metric with a name, unit(s), count and {@code float} value, minValue, maxValue and sumOfSquares,
+     * without boxing the values.
+     * @param metricName the name of the metric
+     * @param units the units to report
+     * @param count the number of things being measured
+     * @param value the value to report
+     * @param minValue the minimum value to report
+     * @param maxValue the maximum value to report
+     * @param sumOfSquares the sum of squared values to report
+     */
+    public void reportMetric(String metricName, String units, int count, float value, float minValue, float maxValue, float sumOfSquares) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(REPORTING_METRIC_MSG, metricName);
+        }
+        collector.addData(metricName, units, count, value, minValue, maxValue, sumOfSquares);
+    }
+
+    /**
+     * Report a metric with a name, unit(s) and {@code double} value, without boxing the value.
+     * The value is aggregated as a {@code double} and sent as a {@code float}.
+     * The count is assumed to be 1, while minValue and maxValue are set to value.
+     * Sum of squares is calculated as the value squared.
+     * @param metricName the name of the metric
+     * @param units the units to report
+     * @param value the value to report
+     */
+    public void reportMetric(String metricName, String units, double value) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(REPORTING_METRIC_MSG, metricName);
+        }
+        collector.addData(metricName, units, value);
+    }
+
+    /**
+     * Report a metric with a name, unit(s), count and {@code double} value, minValue, maxValue and sumOfSquares,
+     * without boxing the values.
+     * All values are aggregated as {@code doubles} and sent as {@code floats}.
+     * @param metricName the name of the metric
+     * @param units the units to report
+     * @param count the number of things being measured
+     * @param value the value to report
+     * @param minValue the minimum value to report
+     * @param maxValue the maximum value to report
+     * @param sumOfSquares the sum of squared values to report
+     */
+    public void reportMetric(String metricName, String units, int count, double value, double minValue, double maxValue, double sumOfSquares) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(REPORTING_METRIC_MSG, metricName);
+        }
+        collector.addData(metricName, units, count, value, minValue, maxValue, sumOfSquares);
+    }
+
+    /**
+     * Report a metric with a name, unit(s) and {@code long} value, without boxing the value.
+     * The value is aggregated as a {@code double} and sent as a {@code float}.
+     * The count is assumed to be 1, while minValue and maxValue are set to value.
+     * Sum of squares is calculated as the value squared.
+     * @param metricName the name of the metric
+     * @param units the units to report
+     * @param value the value to report
+     */
+    public void reportMetric(String metricName, String units, long value) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(REPORTING_METRIC_MSG, metricName);
+        }
+        collector.addData(metricName, units, value);
+    }
+
+    /**
+     * Report a metric with a name, unit(s), count and {@code long} value, minValue, maxValue and sumOfSquares,
+     * without boxing the values.
+     * All values are aggregated as {@code doubles} and sent as {@code floats}.
+     * @param metricName the name of the metric
+     * @param units the units to report
+     * @param count the number of things being measured
+     * @param value the value to report
+     * @param minValue the minimum value to report
+     * @param maxValue the maximum value to report
+     * @param sumOfSquares the sum of squared values to report
+     */
+    public void reportMetric(String metricName, String units, int count, long value, long minValue, long maxValue, long sumOfSquares) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(REPORTING_METRIC_MSG, metricName);
+        }
+        collector.addData(metricName, units, count, value, minValue, maxValue, sumOfSquares);
+    }
+
+    /* package */ String getTenant() {
+        return tenant;
+    }
+
+    /* package */ void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
     /* package */ DataCollector getCollector() {
         return collector;
     }
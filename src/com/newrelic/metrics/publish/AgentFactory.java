@@ -30,6 +30,11 @@ public abstract class AgentFactory {
     
     private static final Logger logger = Logger.getLogger(AgentFactory.class);
 
+    private static final String POLL_INTERVAL = "poll_interval";
+    private static final String SAMPLE_INTERVAL = "sample_interval_in_millis";
+    private static final String TENANT = "tenant";
+    private static final String POLL_DEADLINE = "poll_deadline";
+
     /**
      * Return a new instance of the appropriate {@link Agent} subclass, configured with information
      * extracted from the {@code properties}, a {@code Map} of configuration keys and values.
@@ -96,9 +101,34 @@ public abstract class AgentFactory {
     private void createAndRegister(Runner runner, Map<String, Object> map) throws ConfigurationException {
         Agent agent = createConfiguredAgent(map);
         logger.debug("Created agent: ", agent);
+        if (map.get(POLL_INTERVAL) != null) {
+            agent.setPollInterval((int) getPositiveLong(map, POLL_INTERVAL));
+        }
+        if (map.get(SAMPLE_INTERVAL) != null) {
+            agent.setSampleIntervalInMillis(getPositiveLong(map, SAMPLE_INTERVAL));
+        }
+        if (map.get(POLL_DEADLINE) != null) {
+            agent.setPollDeadline((int) getPositiveLong(map, POLL_DEADLINE));
+        }
+        if (map.get(TENANT) != null) {
+            agent.setTenant(map.get(TENANT).toString());
+        }
         runner.register(agent);
     }
 
+    private long getPositiveLong(Map<String, Object> map, String property) throws ConfigurationException {
+        Object value = map.get(property);
+        try {
+            long number = (value instanceof Number) ? ((Number) value).longValue() : Long.parseLong(value.toString());
+            if (number <= 0) {
+                throw logAndThrow("Agent '" + property + "' must be greater than 0");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw logAndThrow("Agent '" + property + "' must be a number");
+        }
+    }
+
     private File getConfigurationFile(String configFileName) throws ConfigurationException {
         String path = Config.getConfigDirectory() + File.separatorChar + configFileName;
         File file = new File(path);
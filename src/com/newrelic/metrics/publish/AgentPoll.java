@@ -0,0 +1,102 @@
+package com.newrelic.metrics.publish;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.newrelic.metrics.publish.binding.Request;
+import com.newrelic.metrics.publish.util.Logger;
+
+/**
+ * A poll cycle of an {@link Agent} running on the poll executor.
+ * <p> Metrics are reported into a {@link Request} that belongs to the poll cycle. When the poll cycle completes,
+ * successfully or not, it is added to a completion queue, so that the harvest folds in each agent as soon as it completes
+ * rather than waiting for agents in the order they were submitted.
+ * A poll cycle that misses its deadline keeps running while the other agents are harvested, and its metrics are folded
+ * into a later harvest once it completes.
+ */
+/* package */ class AgentPoll implements Callable<Void> {
+
+    private static final Logger logger = Logger.getLogger(AgentPoll.class);
+
+    private final Agent agent;
+    private final Request request;
+    private FutureTask<Void> future;
+
+    /**
+     * Constructs an {@code AgentPoll}
+     * @param agent the {@link Agent} to poll
+     * @param request the {@link Request} of the previous poll cycle of the {@link Agent} to reuse,
+     * which must have been harvested already
+     */
+    /* package */ AgentPoll(Agent agent, Request request) {
+        this.agent = agent;
+        this.request = request;
+        request.reset();
+    }
+
+
+    /* package */ Agent getAgent() {
+        return agent;
+    }
+
+    /**
+     * Start the poll cycle
+     * @param executor the executor to run the poll cycle on
+     * @param completions the queue the poll cycle is added to when it completes
+     */
+    /* package */ void submit(ExecutorService executor, final Queue<AgentPoll> completions) {
+        future = new FutureTask<Void>(this) {
+            @Override
+            protected void done() {
+                completions.add(AgentPoll.this);
+            }
+        };
+        executor.execute(future);
+    }
+
+    /**
+     * Is the poll cycle complete, successfully or not
+     * @return boolean
+     */
+    /* package */ boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Wait for the poll cycle to complete.
+     * @param timeoutInMillis the maximum time to wait
+     * @return boolean true if the poll cycle completed, false if it is still running
+     * @throws ExecutionException wrapping the exception thrown by the poll cycle
+     * @throws InterruptedException if interrupted while waiting
+     */
+    /* package */ boolean await(long timeoutInMillis) throws ExecutionException, InterruptedException {
+        try {
+            future.get(Math.max(0, timeoutInMillis), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Fold the metrics of a completed poll cycle into a {@link Request}
+     * @param into the {@link Request} to fold metrics into
+     */
+    /* package */ void harvest(Request into) {
+        into.aggregateWith(request);
+    }
+
+    @Override
+    public Void call() {
+        agent.getCollector().setRequest(request);
+        logger.debug("Beginning poll cycle for agent: '", agent.getAgentName(), "'");
+        agent.pollCycle();
+        logger.debug("Ending poll cycle for agent: '", agent.getAgentName(), "'");
+        return null;
+    }
+}
@@ -0,0 +1,130 @@
+package com.newrelic.metrics.publish;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.newrelic.metrics.publish.binding.Context;
+import com.newrelic.metrics.publish.binding.Request;
+import com.newrelic.metrics.publish.util.Logger;
+
+/**
+ * Samples an {@link Agent} at its {@link Agent#getSampleIntervalInMillis()}.
+ * <p> Each sample is reported into a {@link Request} of its own, and folded into a {@code Request} that pre-aggregates
+ * the samples when it completes, so each metric keeps a single count, total, min, max and sum of squares no matter
+ * how many samples are taken. The pre-aggregated samples are swapped out and folded into the shared {@link Request}
+ * once per harvest, without waiting for a sample in progress, which is harvested with the next harvest.
+ * <p> A sample that starts more than half a sample interval late, because the previous sample overran,
+ * is skipped and counted as an overrun instead of being taken back to back with the previous sample.
+ */
+/* package */ class AgentSampler implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(AgentSampler.class);
+
+    private final Agent agent;
+    private final Context context;
+    private final PollOverruns overruns;
+    // the sample in progress, only used by the sampling thread
+    private final Request sample;
+    // the samples taken since the last harvest, and a spare to swap in at the next harvest, guarded by this
+    private Request samples;
+    private Request spare;
+    private long firstSampleAt = -1;
+    private ScheduledFuture<?> future;
+
+    /**
+     * Constructs an {@code AgentSampler}
+     * @param agent the {@link Agent} to sample
+     * @param context the {@link Context} of the {@link Agent}
+     * @param overruns the {@link PollOverruns} to count skipped samples in
+     */
+    /* package */ AgentSampler(Agent agent, Context context, PollOverruns overruns) {
+        this.agent = agent;
+        this.context = context;
+        this.overruns = overruns;
+        this.sample = new Request(context);
+        this.samples = new Request(context);
+        this.spare = new Request(context);
+    }
+
+    /* package */ Agent getAgent() {
+        return agent;
+    }
+
+    /* package */ Context getContext() {
+        return context;
+    }
+
+    /**
+     * Start sampling at the sample interval of the {@link Agent}
+     * @param executor the executor to sample on
+     */
+    /* package */ void start(ScheduledExecutorService executor) {
+        future = executor.scheduleAtFixedRate(this, 0, agent.getSampleIntervalInMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sampling. Samples taken so far can still be harvested, but a sample in progress is not.
+     */
+    /* package */ void cancel() {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Take one sample. Samples of an {@code AgentSampler} are never taken concurrently.
+     */
+    @Override
+    public void run() {
+        if (isLate(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()))) {
+            long count = overruns.increment(agent);
+            logger.warn("Previous sample of agent '", agent.getAgentName(), "' overran, skipping a sample (", count, " overruns)");
+            return;
+        }
+
+        try {
+            sample.reset();
+            agent.getCollector().setRequest(sample);
+            agent.pollCycle();
+        } catch (Exception e) {
+            // log exception and continue sampling -- could be a transient issue
+            logger.error(e, "An error occurred while sampling agent: '", agent.getAgentName(), "'");
+        }
+        synchronized (this) {
+            samples.aggregateWith(sample);
+        }
+    }
+
+    /**
+     * Is a sample late on the grid of sample times that starts with the first sample
+     * @param now the current monotonic time in milliseconds
+     * @return boolean
+     */
+    /* package */ boolean isLate(long now) {
+        if (firstSampleAt < 0) {
+            firstSampleAt = now;
+        }
+        long interval = agent.getSampleIntervalInMillis();
+        return (now - firstSampleAt) % interval > interval / 2;
+    }
+
+    /**
+     * Fold the samples taken since the last harvest into a {@link Request}.
+     * A sample in progress is not waited for. It completes into the next harvest, so every sample is harvested exactly once.
+     * @param request the {@link Request} to fold samples into
+     */
+    /* package */ void harvest(Request request) {
+        Request harvested;
+        synchronized (this) {
+            harvested = samples;
+            samples = spare != null ? spare : new Request(context);
+            spare = null;
+        }
+        request.aggregateWith(harvested);
+        harvested.reset();
+        synchronized (this) {
+            spare = harvested;
+        }
+    }
+}
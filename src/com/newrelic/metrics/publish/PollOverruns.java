@@ -0,0 +1,47 @@
+package com.newrelic.metrics.publish;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the poll cycles and samples of each {@link Agent} that overran.
+ * A poll cycle overruns when it misses its deadline or is skipped because the previous poll cycle is still running.
+ * When agents are polled sequentially, a poll cycle overruns when it takes longer than its deadline.
+ * A sample overruns when it is skipped because the previous sample took longer than the sample interval.
+ */
+/* package */ class PollOverruns {
+
+    private final ConcurrentMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Count an overrun of an {@link Agent}
+     * @param agent the {@link Agent}
+     * @return long the number of overruns of the {@link Agent} so far
+     */
+    /* package */ long increment(Agent agent) {
+        AtomicLong count = counts.get(agent.getAgentName());
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = counts.putIfAbsent(agent.getAgentName(), newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        return count.incrementAndGet();
+    }
+
+    /**
+     * Get the number of overruns by agent name, for the agents that overran at least once
+     * @return Map the overrun counts sorted by agent name
+     */
+    /* package */ Map<String, Long> getCounts() {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+}
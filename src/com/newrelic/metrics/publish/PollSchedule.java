@@ -0,0 +1,146 @@
+package com.newrelic.metrics.publish;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A schedule for polling {@link Agent}s at their own poll intervals.
+ * <p> The {@link Runner} ticks at the greatest common divisor of the harvest interval and every
+ * {@link Agent#getPollInterval()}. On each tick, only the agents whose poll interval has elapsed are polled,
+ * and reported metrics are harvested and delivered once per harvest interval.
+ * <p> Agents with a {@link Agent#getSampleIntervalInMillis()} are sampled by an {@link AgentSampler} instead,
+ * and are never due on a tick.
+ */
+/* package */ class PollSchedule {
+
+    private final int harvestInterval;
+    private final int tickInterval;
+
+    /**
+     * Constructs a {@code PollSchedule}
+     * @param harvestInterval the interval in seconds that metrics are delivered at
+     * @param agents the {@link Agent}s to be polled
+     */
+    /* package */ PollSchedule(int harvestInterval, Collection<Agent> agents) {
+        this.harvestInterval = harvestInterval;
+
+        int tick = harvestInterval;
+        for (Agent agent : agents) {
+            if (!isSampled(agent)) {
+                tick = gcd(tick, getPollInterval(agent));
+            }
+        }
+        this.tickInterval = tick;
+    }
+
+    /**
+     * Get the interval in seconds between ticks
+     * @return int the tick interval
+     */
+    /* package */ int getTickInterval() {
+        return tickInterval;
+    }
+
+    /**
+     * Get the interval in seconds between polls of an {@link Agent}.
+     * Agents that do not declare a poll interval are polled once per harvest interval.
+     * @param agent the {@link Agent}
+     * @return int the poll interval
+     */
+    /* package */ int getPollInterval(Agent agent) {
+        return agent.getPollInterval() > 0 ? agent.getPollInterval() : harvestInterval;
+    }
+
+    /**
+     * Get the poll interval nearest to the poll interval of an {@link Agent} that is a multiple of the tick interval.
+     * The tick interval is fixed once the {@link Runner} has started, so an {@link Agent} added later
+     * can only be polled at multiples of it.
+     * @param agent the {@link Agent}
+     * @return int the fitted poll interval
+     */
+    /* package */ int fitPollInterval(Agent agent) {
+        int pollInterval = getPollInterval(agent);
+        int ticks = Math.max(1, Math.round((float) pollInterval / tickInterval));
+        return ticks * tickInterval;
+    }
+
+    /**
+     * Get the {@link Agent}s that are due to be polled on a tick
+     * @param agents the {@link Agent}s to select from
+     * @param tick the number of ticks elapsed since the {@link Runner} started
+     * @return List the due agents
+     */
+    /* package */ List<Agent> getDueAgents(Collection<Agent> agents, long tick) {
+        return getDueAgents(agents, tick - 1, tick);
+    }
+
+    /**
+     * Get the {@link Agent}s that are due to be polled on a tick that follows skipped ticks.
+     * An agent is due if any of its poll intervals ended after the previous tick, so an agent whose only due tick
+     * was skipped is polled late rather than a full poll interval later.
+     * @param agents the {@link Agent}s to select from
+     * @param previousTick the tick that ran before, or -1 on the first tick
+     * @param tick the number of ticks elapsed since the {@link Runner} started
+     * @return List the due agents
+     */
+    /* package */ List<Agent> getDueAgents(Collection<Agent> agents, long previousTick, long tick) {
+        List<Agent> dueAgents = new LinkedList<Agent>();
+        for (Agent agent : agents) {
+            if (!isSampled(agent) && isDue(getPollInterval(agent), previousTick, tick)) {
+                dueAgents.add(agent);
+            }
+        }
+        return dueAgents;
+    }
+
+    /**
+     * Is the harvest due on a tick
+     * @param tick the number of ticks elapsed since the {@link Runner} started
+     * @return boolean
+     */
+    /* package */ boolean isHarvestDue(long tick) {
+        return isHarvestDue(tick - 1, tick);
+    }
+
+    /**
+     * Is the harvest due on a tick that follows skipped ticks
+     * @param previousTick the tick that ran before, or -1 on the first tick
+     * @param tick the number of ticks elapsed since the {@link Runner} started
+     * @return boolean
+     */
+    /* package */ boolean isHarvestDue(long previousTick, long tick) {
+        return isDue(harvestInterval, previousTick, tick);
+    }
+
+    /**
+     * Is an {@link Agent} sampled at a sub-interval rate rather than polled on ticks
+     * @param agent the {@link Agent}
+     * @return boolean
+     */
+    /* package */ static boolean isSampled(Agent agent) {
+        return agent.getSampleIntervalInMillis() > 0;
+    }
+
+    /*
+     * Is an interval due on a tick, because an interval boundary lies in (previousTick, tick]
+     */
+    private boolean isDue(int interval, long previousTick, long tick) {
+        return countBoundaries(interval, tick) > countBoundaries(interval, previousTick);
+    }
+
+    private long countBoundaries(int interval, long tick) {
+        long seconds = tick * tickInterval;
+        // round down for the tick before the first one
+        return seconds >= 0 ? seconds / interval : (seconds - interval + 1) / interval;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+}
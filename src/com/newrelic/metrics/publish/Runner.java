@@ -1,17 +1,35 @@
 package com.newrelic.metrics.publish;
 
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.CancellationException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.newrelic.metrics.publish.binding.CardinalityPolicy;
 import com.newrelic.metrics.publish.binding.Context;
+import com.newrelic.metrics.publish.binding.DeliveryQueue;
 import com.newrelic.metrics.publish.binding.Request;
 import com.newrelic.metrics.publish.configuration.Config;
 import com.newrelic.metrics.publish.configuration.ConfigurationException;
@@ -22,7 +40,7 @@ import com.newrelic.metrics.publish.util.Logger;
  * The main entry point for executing the SDK.
  * Add an {@link AgentFactory} to create an {@link Agent}
  * or register an {@link Agent} directly. The {@code Runner} will poll {@link Agent}s
- * in a loop that never returns.
+ * in a loop that never returns, or in the background on a provided executor with {@link #start(ScheduledExecutorService)}.
  */
 public class Runner {
 
@@ -31,8 +49,21 @@ public class Runner {
     private List<Agent> componentAgents;
     private final SDKConfiguration config;
     private int pollInterval = 60;
+    private int pollThreadPoolSize = 1;
+    private ExecutorService pollExecutor;
+    private PollSchedule pollSchedule;
+    private SchedulingPolicy schedulingPolicy;
+    private DeliveryQueue deliveryQueue;
+    private List<AgentSampler> samplers = new CopyOnWriteArrayList<AgentSampler>();
+    // samplers have their own threads, so that polls and deliveries on the ticking thread do not delay samples
+    private ScheduledThreadPoolExecutor samplerExecutor;
+    private boolean stopped = false;
+    private boolean embedded = false;
+    private volatile PollAgentsRunnable pollAgentsRunnable;
     private HashSet<AgentFactory> factories = new HashSet<AgentFactory>();
-    private Context context;
+    // read by RunnerHandle while agents are added
+    private Map<String, Context> contexts = Collections.synchronizedMap(new LinkedHashMap<String, Context>());
+    private final PollOverruns overruns = new PollOverruns();
 
     /**
      * Constructs a {@code Runner}
@@ -40,7 +71,8 @@ public class Runner {
      */
     public Runner() throws ConfigurationException {
         super();
-        componentAgents = new LinkedList<Agent>();
+        // agents can be added and removed while they are polled
+        componentAgents = new CopyOnWriteArrayList<Agent>();
 
         try {
             Config.init();
@@ -65,11 +97,40 @@ public class Runner {
     }
 
     /**
-     * Add an {@link Agent}
+     * Add an {@link Agent}.
+     * Agents can also be added while the {@code Runner} is running, from any thread.
+     * They are set up immediately and polled from the next tick, without interrupting the other agents.
      * @param agent the {@link Agent} to be added
+     * @throws IllegalArgumentException if the {@link Agent} was added while running and reports to an undefined tenant
      */
     public void add(Agent agent) {
-        componentAgents.add(agent);
+        addAgent(agent);
+    }
+
+    /**
+     * Add an {@link Agent} that reports to a tenant.
+     * Each tenant has its own license key and endpoint, configured in the {@code tenants} section of {@code newrelic.json},
+     * so that one {@code Runner} can report to several New Relic accounts.
+     * @param agent the {@link Agent} to be added
+     * @param tenant the name of the tenant, or {@code null} for the default {@code license_key}
+     */
+    public void add(Agent agent, String tenant) {
+        agent.setTenant(tenant);
+        addAgent(agent);
+    }
+
+    /**
+     * Remove an {@link Agent} while the {@code Runner} is running, from any thread.
+     * Metrics it reported so far are delivered with the next harvest.
+     * A poll cycle in progress is not interrupted, and its metrics are delivered when it completes.
+     * @param agent the {@link Agent} to be removed
+     * @return boolean true if the {@link Agent} was removed, false if it was not added
+     */
+    public boolean remove(Agent agent) {
+        if (pollAgentsRunnable == null) {
+            return componentAgents.remove(agent);
+        }
+        return pollAgentsRunnable.removeAgent(agent);
     }
 
     /**
@@ -80,7 +141,19 @@ public class Runner {
      */
     @Deprecated
     public void register(Agent agent) {
-        componentAgents.add(agent);
+        addAgent(agent);
+    }
+
+    private void addAgent(Agent agent) {
+        if (pollAgentsRunnable == null) {
+            componentAgents.add(agent);
+            return;
+        }
+        try {
+            pollAgentsRunnable.addAgent(agent);
+        } catch (ConfigurationException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
     }
 
     /**
@@ -100,35 +173,270 @@ public class Runner {
      * @throws ConfigurationException if the {@link Runner} was not configured correctly
      */
     public void setupAndRun() throws ConfigurationException {
-        setupAgents();
-        // TODO: when removing SDKConfiguration, move config validation here
-        pollInterval = config.getPollInterval();
+        setup();
 
         ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-        ScheduledFuture<?> future = executor.scheduleAtFixedRate(new PollAgentsRunnable(), 0, pollInterval, TimeUnit.SECONDS);  //schedule pollAgentsRunnable as the runnable command
+        startPolling(executor);
 
         System.out.println("INFO: New Relic monitor started");
 
         try {
-            // getting the future's response will block forever unless an exception is thrown
-            future.get();
+            // waiting for the polling thread will block forever unless an error is thrown
+            pollAgentsRunnable.awaitTermination();
         } catch (InterruptedException e) {
             System.err.println("SEVERE: An error has occurred");
             e.printStackTrace();
-        } catch (CancellationException e) {
-            System.err.println("SEVERE: An error has occurred");
-            e.printStackTrace();
         } catch (ExecutionException e) {
             // ExecutionException will wrap any java.lang.Error from the polling thread that we should not catch there (e.g. OutOfMemoryError)
             System.err.println("SEVERE: An error has occurred");
             e.printStackTrace();
         } finally {
             // clean up
-            future.cancel(true);
+            stop();
             executor.shutdown();
         }
     }
 
+    /**
+     * Setup the {@code Runner} and start polling on a provided {@link ScheduledExecutorService} without blocking.
+     * This allows the SDK to be embedded in an existing application instead of running in its own process.
+     * Add an {@link AgentFactory} or register {@link Agent}s before calling.
+     * <p> The executor is not shut down by the {@code Runner}. Use the returned {@link RunnerHandle} to stop polling.
+     * @param executor the executor to poll {@link Agent}s on
+     * @return RunnerHandle a handle to flush metrics and stop polling
+     * @throws ConfigurationException if the {@link Runner} was not configured correctly
+     */
+    public RunnerHandle start(ScheduledExecutorService executor) throws ConfigurationException {
+        embedded = true;
+        setup();
+        startPolling(executor);
+        logger.info("New Relic monitor started");
+        return new RunnerHandle(this);
+    }
+
+    private void setup() throws ConfigurationException {
+        if (pollAgentsRunnable != null) {
+            throw new IllegalStateException("Runner has already been started");
+        }
+
+        setupAgents();
+        // TODO: when removing SDKConfiguration, move config validation here
+        pollInterval = config.getPollInterval();
+        pollThreadPoolSize = getPollThreadPoolSize();
+        pollExecutor = createPollExecutor();
+        deliveryQueue = createDeliveryQueue();
+
+        pollSchedule = new PollSchedule(pollInterval, componentAgents);
+        if (pollSchedule.getTickInterval() != pollInterval) {
+            logger.info("Polling agents on their own poll intervals, checking every ", pollSchedule.getTickInterval(), " seconds");
+        }
+
+        createSamplers();
+        schedulingPolicy = new SchedulingPolicy(pollSchedule.getTickInterval(), pollInterval, getPollStartOffset(), System.currentTimeMillis());
+    }
+
+    private void startPolling(ScheduledExecutorService executor) {
+        for (AgentSampler sampler : samplers) {
+            startSampler(sampler);
+        }
+
+        pollAgentsRunnable = new PollAgentsRunnable(executor);
+        pollAgentsRunnable.start();
+    }
+
+    /**
+     * Harvest and deliver metrics reported so far, without waiting for the next harvest.
+     */
+    /* package */ void flush() {
+        pollAgentsRunnable.flush();
+    }
+
+    /**
+     * Stop polling and release the threads owned by the {@code Runner}.
+     * Requests queued for delivery are delivered before returning.
+     */
+    /* package */ void stop() {
+        pollAgentsRunnable.cancel();
+        synchronized (this) {
+            stopped = true;
+            if (samplerExecutor != null) {
+                samplerExecutor.shutdownNow();
+            }
+        }
+        if (pollExecutor != null) {
+            pollExecutor.shutdownNow();
+        }
+        if (deliveryQueue != null) {
+            shutdownDeliveryQueue();
+        }
+    }
+
+    /* package */ boolean isRunning() {
+        return pollAgentsRunnable.isRunning();
+    }
+
+    /* package */ Map<String, Long> getOverrunCounts() {
+        return overruns.getCounts();
+    }
+
+    /* package */ long getRejectedMetricCount() {
+        long rejected = 0;
+        synchronized (contexts) {
+            for (Context context : contexts.values()) {
+                rejected += context.getRejectedMetricCount();
+            }
+        }
+        return rejected;
+    }
+
+    /* package */ long getDroppedMetricCount() {
+        long dropped = 0;
+        synchronized (contexts) {
+            for (Context context : contexts.values()) {
+                dropped += context.getDroppedMetricCount();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Create the executor that agents are polled on.
+     * Virtual threads are used when {@code poll_virtual_threads} is enabled and the JVM supports them,
+     * otherwise a fixed pool of {@code poll_thread_pool_size} platform threads is used.
+     * Returns {@code null} when agents should be polled sequentially on the scheduler thread.
+     */
+    private ExecutorService createPollExecutor() {
+        boolean virtualThreads = Config.getValue("poll_virtual_threads", false);
+        ExecutorService executor = createPollExecutor(virtualThreads, pollThreadPoolSize, createThreadFactory("New Relic Poll", embedded));
+        if (executor instanceof ThreadPoolExecutor) {
+            if (virtualThreads) {
+                logger.warn("Virtual threads are not supported by this JVM, polling agents with ", pollThreadPoolSize, " threads");
+            } else {
+                logger.info("Polling agents in parallel with ", pollThreadPoolSize, " threads");
+            }
+        } else if (executor != null) {
+            logger.info("Polling agents on virtual threads");
+        }
+        return executor;
+    }
+
+    /**
+     * Create the executor that agents are polled on
+     * @param virtualThreads poll each agent on its own virtual thread, if the JVM supports them
+     * @param pollThreadPoolSize the number of platform threads to poll on otherwise
+     * @param threadFactory the factory for the platform threads
+     * @return ExecutorService the executor, or {@code null} to poll sequentially
+     */
+    /* package */ static ExecutorService createPollExecutor(boolean virtualThreads, int pollThreadPoolSize, ThreadFactory threadFactory) {
+        if (virtualThreads) {
+            ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+            if (virtualThreadExecutor != null) {
+                return virtualThreadExecutor;
+            }
+            return Executors.newFixedThreadPool(pollThreadPoolSize, threadFactory);
+        }
+
+        if (pollThreadPoolSize > 1) {
+            return Executors.newFixedThreadPool(pollThreadPoolSize, threadFactory);
+        }
+        return null;
+    }
+
+    /**
+     * Create a factory for the threads owned by the {@code Runner}.
+     * When the SDK is embedded they are daemon threads, so that they do not keep the application's JVM alive
+     * if it exits without stopping the {@code Runner}.
+     * @param name the name of the threads, which are numbered
+     * @param daemon whether the threads are daemon threads
+     * @return ThreadFactory the factory
+     */
+    /* package */ static ThreadFactory createThreadFactory(final String name, final boolean daemon) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+                thread.setDaemon(daemon);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Create samplers for the agents that declare a sample interval.
+     * Samples are scheduled separately from ticks so that sampling cadence is independent of harvests.
+     */
+    private void createSamplers() {
+        for (Agent agent : componentAgents) {
+            if (PollSchedule.isSampled(agent)) {
+                samplers.add(createSampler(agent));
+            }
+        }
+    }
+
+    /**
+     * Start an {@link AgentSampler} on the executor for samplers, which has a thread for each sampler
+     */
+    private synchronized void startSampler(AgentSampler sampler) {
+        if (stopped) {
+            return;
+        }
+        if (samplerExecutor == null) {
+            samplerExecutor = new ScheduledThreadPoolExecutor(1, createThreadFactory("New Relic Sampler", embedded));
+        } else {
+            samplerExecutor.setCorePoolSize(samplerExecutor.getCorePoolSize() + 1);
+        }
+        sampler.start(samplerExecutor);
+    }
+
+    private synchronized void stopSampler(AgentSampler sampler) {
+        sampler.cancel();
+        if (samplerExecutor != null && samplerExecutor.getCorePoolSize() > 1) {
+            samplerExecutor.setCorePoolSize(samplerExecutor.getCorePoolSize() - 1);
+        }
+    }
+
+    private AgentSampler createSampler(Agent agent) {
+        logger.info("Sampling agent '", agent.getAgentName(), "' every ", agent.getSampleIntervalInMillis(), " milliseconds");
+        return new AgentSampler(agent, agent.getCollector().getContext(), overruns);
+    }
+
+    private DeliveryQueue createDeliveryQueue() throws ConfigurationException {
+        int deliveryQueueSize = getIntValue("delivery_queue_size", 0);
+        if (deliveryQueueSize < 0) {
+            throw new ConfigurationException("'delivery_queue_size' must not be negative");
+        }
+        if (deliveryQueueSize > 0) {
+            logger.info("Delivering metrics asynchronously with a queue of ", deliveryQueueSize, " requests");
+            return new DeliveryQueue(deliveryQueueSize, embedded);
+        }
+        return null;
+    }
+
+    private void shutdownDeliveryQueue() {
+        try {
+            if (!deliveryQueue.shutdown(pollInterval, TimeUnit.SECONDS)) {
+                logger.warn("Timed out delivering queued metrics");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Looked up reflectively since the SDK is compiled for JVMs that predate virtual threads
+     */
+    /* package */ static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            // NoSuchMethodException on older JVMs, or UnsupportedOperationException wrapped in an
+            // InvocationTargetException when virtual threads are a disabled preview feature
+            return null;
+        }
+    }
+
     private void createAgents() throws ConfigurationException {
         for (Iterator<AgentFactory> iterator = factories.iterator(); iterator.hasNext();) {
             AgentFactory factory = (AgentFactory) iterator.next();
@@ -144,27 +452,91 @@ public class Runner {
             logger.info("Metric service URI: ", config.internalGetServiceURI());
         }
 
-        context = new Context();
-
         Iterator<Agent> iterator = componentAgents.iterator();
         while (iterator.hasNext()) {
-            Agent agent = iterator.next();
+            setupAgent(iterator.next());
+        }
+    }
 
-            setupAgentContext(agent);
+    private void setupAgent(Agent agent) throws ConfigurationException {
+        setupAgentContext(agent, getContext(agent.getTenant()));
 
-            agent.prepareToRun();
-            agent.setupMetrics();
+        agent.prepareToRun();
+        agent.setupMetrics();
+    }
 
-            //TODO this is a really awkward place to set the license key on the request
-            context.licenseKey = config.getLicenseKey();
-            if(config.internalGetServiceURI() != null) {
-                context.internalSetServiceURI(config.internalGetServiceURI());
+    /**
+     * Get the {@link Context} for a tenant, creating it for the first agent of the tenant.
+     * Every tenant aggregates and delivers its metrics separately.
+     */
+    private Context getContext(String tenant) throws ConfigurationException {
+        Context context = contexts.get(tenant);
+        if (context == null) {
+            context = new Context();
+            if (tenant == null) {
+                if (config.getLicenseKey() == null) {
+                    throw new ConfigurationException("license_key is undefined");
+                }
+                context.licenseKey = config.getLicenseKey();
+                if(config.internalGetServiceURI() != null) {
+                    context.internalSetServiceURI(config.internalGetServiceURI());
+                }
+            } else {
+                Map<String, Object> tenantConfig = getTenantConfig(tenant);
+                if (tenantConfig.get("license_key") == null) {
+                    throw new ConfigurationException("license_key is undefined for tenant '" + tenant + "'");
+                }
+                context.licenseKey = (String) tenantConfig.get("license_key");
+                if (tenantConfig.get("endpoint") != null) {
+                    context.internalSetServiceURI((String) tenantConfig.get("endpoint"));
+                } else if(config.internalGetServiceURI() != null) {
+                    context.internalSetServiceURI(config.internalGetServiceURI());
+                }
+                logger.info("Reporting tenant '", tenant, "' to ", context.getServiceURI());
             }
             context.internalSetSSLHostVerification(config.isSSLHostVerificationEnabled());
+            context.internalSetGzip(isGzipContentEncoding());
+            context.internalSetChunkedStreaming(Config.getValue("chunked_transfer_encoding", false));
+            context.internalSetMaxPayloadSize(getIntValue("max_payload_size", 0));
+            context.internalSetReuseRequests(Config.getValue("reuse_requests", false));
+            context.internalSetCompensatedSummation(Config.getValue("compensated_summation", false));
+            context.internalSetMetricBudget(getIntValue("max_retained_metrics", 0), getCardinalityPolicy());
+            context.internalSetComponentMetricLimit(getIntValue("max_component_metrics", 0), Config.<String>getValue("overflow_metric_name"));
+            contexts.put(tenant, context);
+        }
+        return context;
+    }
+
+    private static boolean isGzipContentEncoding() throws ConfigurationException {
+        String contentEncoding = Config.getValue("content_encoding", "identity");
+        if ("gzip".equalsIgnoreCase(contentEncoding)) {
+            return true;
+        }
+        if (!"identity".equalsIgnoreCase(contentEncoding)) {
+            throw new ConfigurationException("'content_encoding' must be 'gzip' or 'identity', not '" + contentEncoding + "'");
+        }
+        return false;
+    }
+
+    private static CardinalityPolicy getCardinalityPolicy() throws ConfigurationException {
+        String policy = Config.getValue("retained_metrics_policy", "drop_new");
+        try {
+            return CardinalityPolicy.fromName(policy);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("'retained_metrics_policy' must be 'drop_new' or 'drop_oldest', not '" + policy + "'");
         }
     }
 
-    private void setupAgentContext(Agent agent) {
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getTenantConfig(String tenant) throws ConfigurationException {
+        Map<String, Object> tenants = Config.getValue("tenants", new HashMap<String, Object>());
+        if ( !(tenants.get(tenant) instanceof Map) ) {
+            throw new ConfigurationException("Tenant '" + tenant + "' is not defined in 'tenants'");
+        }
+        return (Map<String, Object>) tenants.get(tenant);
+    }
+
+    private void setupAgentContext(Agent agent, Context context) {
         // Since this data comes from the configured agents, it needs to be initialized here.  But only set it once since
         // all agents should share the same version.
         if (context.agentData.version == null) {
@@ -176,41 +548,235 @@ public class Runner {
     }
 
     private Integer getLogLimitInKilobytes() {
-        Integer logLimitInKiloBytes = 25600; // 25 MB
-        if (Config.getValue("log_limit_in_kbytes") instanceof String) {
-            logLimitInKiloBytes = Integer.valueOf(Config.<String>getValue("log_limit_in_kbytes"));
+        return getIntValue("log_limit_in_kbytes", 25600); // 25 MB
+    }
+
+    private int getPollThreadPoolSize() throws ConfigurationException {
+        int poolSize = getIntValue("poll_thread_pool_size", 1);
+        if (poolSize < 1) {
+            throw new ConfigurationException("'poll_thread_pool_size' must be greater than 0");
+        }
+        return poolSize;
+    }
+
+    /**
+     * Get the offset in milliseconds of harvests within the poll interval.
+     * {@code poll_start_offset} sets the offset in seconds, while {@code poll_jitter} derives it
+     * from the host name and agent GUIDs so that it is stable across restarts.
+     * Returns {@code null} when polling should start immediately.
+     */
+    private Long getPollStartOffset() throws ConfigurationException {
+        if (Config.getValue("poll_start_offset") != null) {
+            int offset = getIntValue("poll_start_offset", 0);
+            if (offset < 0 || offset >= pollInterval) {
+                throw new ConfigurationException("'poll_start_offset' must be between 0 and " + (pollInterval - 1));
+            }
+            logger.info("Polling agents with a start offset of ", offset, " seconds");
+            return TimeUnit.SECONDS.toMillis(offset);
+        }
+
+        if (Config.getValue("poll_jitter", false)) {
+            StringBuilder seed = new StringBuilder(getHostName());
+            for (Agent agent : componentAgents) {
+                seed.append(agent.getGUID());
+            }
+            long offset = SchedulingPolicy.getJitterOffset(seed.toString(), pollInterval);
+            logger.info("Polling agents with a start offset of ", offset, " milliseconds");
+            return offset;
+        }
+        return null;
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    private static Integer getIntValue(String property, Integer defaultValue) {
+        Integer value = defaultValue;
+        if (Config.getValue(property) instanceof String) {
+            value = Integer.valueOf(Config.<String>getValue(property));
         }
-        else if (Config.getValue("log_limit_in_kbytes") instanceof Number) {
-            logLimitInKiloBytes = Config.<Long>getValue("log_limit_in_kbytes").intValue();
+        else if (Config.getValue(property) instanceof Number) {
+            value = Config.<Number>getValue(property).intValue();
         }
-        return logLimitInKiloBytes;
+        return value;
     }
 
     /**
-     * Inner runnable class for polling agents from ScheduledExecutor
+     * Inner runnable class for polling agents from ScheduledExecutor.
+     * Each tick schedules the next one according to the {@link SchedulingPolicy}.
      * @author jstenhouse
      */
     private class PollAgentsRunnable implements Runnable {
 
+        private final ScheduledExecutorService executor;
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile Error error;
+        private volatile boolean cancelled = false;
+        private ScheduledFuture<?> scheduledTick;
+        // serializes changes to the agents, without blocking the thread that ticks
+        private final Object agentsLock = new Object();
+
+        private long tick = 0;
+        private long previousTick = -1;
+        // guarded by this, which is held only to fold metrics in and to swap out the requests to deliver
+        private Map<Context, Request> requests = new HashMap<Context, Request>();
+        private Map<Agent, AgentPoll> runningPolls = new LinkedHashMap<Agent, AgentPoll>();
+        private BlockingQueue<AgentPoll> completedPolls = new LinkedBlockingQueue<AgentPoll>();
+        // the Request each agent last polled into, reused by its next poll cycle
+        private Map<Agent, Request> pollRequests = new HashMap<Agent, Request>();
+
+        private PollAgentsRunnable(ScheduledExecutorService executor) {
+            this.executor = executor;
+        }
+
+        private synchronized void start() {
+            scheduledTick = executor.schedule(this, schedulingPolicy.getInitialDelay(System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+
         /**
-         * Collect and report metric data.
+         * Block until polling is cancelled or stopped by an error.
+         * @throws ExecutionException wrapping any java.lang.Error thrown while polling
          */
+        private void awaitTermination() throws InterruptedException, ExecutionException {
+            terminated.await();
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            synchronized (this) {
+                scheduledTick.cancel(false);
+            }
+            terminated.countDown();
+        }
+
+        private boolean isRunning() {
+            return terminated.getCount() > 0;
+        }
+
+        /**
+         * Set up an {@link Agent} added while running, and start polling it from the next tick.
+         * An agent whose poll interval is not a multiple of the tick interval is polled at the nearest multiple.
+         */
+        private void addAgent(Agent agent) throws ConfigurationException {
+            synchronized (agentsLock) {
+                if (componentAgents.contains(agent)) {
+                    return;
+                }
+                setupAgent(agent);
+
+                if (PollSchedule.isSampled(agent)) {
+                    AgentSampler sampler = createSampler(agent);
+                    samplers.add(sampler);
+                    startSampler(sampler);
+                } else if (pollSchedule.fitPollInterval(agent) != pollSchedule.getPollInterval(agent)) {
+                    logger.warn("Poll interval of agent '", agent.getAgentName(), "' is not a multiple of the ", pollSchedule.getTickInterval(),
+                            " second tick interval, polling every ", pollSchedule.fitPollInterval(agent), " seconds");
+                    agent.setPollInterval(pollSchedule.fitPollInterval(agent));
+                }
+
+                componentAgents.add(agent);
+            }
+            logger.info("Added agent '", agent.getAgentName(), "'");
+        }
+
+        /**
+         * Stop polling an {@link Agent}, and fold the samples it has taken into the next harvest.
+         * Its component is removed from the {@link Context}, but metrics it already reported are still delivered.
+         */
+        private boolean removeAgent(Agent agent) {
+            synchronized (agentsLock) {
+                if (!componentAgents.remove(agent)) {
+                    return false;
+                }
+
+                List<AgentSampler> removedSamplers = new LinkedList<AgentSampler>();
+                for (AgentSampler sampler : samplers) {
+                    if (sampler.getAgent() == agent) {
+                        stopSampler(sampler);
+                        samplers.remove(sampler);
+                        removedSamplers.add(sampler);
+                    }
+                }
+                synchronized (this) {
+                    createRequests();
+                    for (AgentSampler sampler : removedSamplers) {
+                        sampler.harvest(requests.get(sampler.getContext()));
+                    }
+                    pollRequests.remove(agent);
+                    agent.getCollector().harvestMetricHandles(requests.get(agent.getCollector().getContext()));
+                    agent.getCollector().removeComponent();
+                }
+            }
+            logger.info("Removed agent '", agent.getAgentName(), "'");
+            return true;
+        }
+
+        /**
+         * Harvest metrics reported since the last harvest, without polling agents.
+         * A poll cycle in progress is not waited for, its metrics are delivered with the next harvest.
+         */
+        private void flush() {
+            deliver(harvest());
+        }
+
         @Override
         public void run() {
             try {
-                logger.debug("Harvest and report data");
+                pollAndHarvest();
+                scheduleNextTick();
+            } catch (Error e) {
+                // java.lang.Error(s) stop polling and are handled by the main thread, which an embedded Runner does not have
+                if (embedded) {
+                    logger.error(e, "An error has occurred, polling has stopped");
+                }
+                error = e;
+                terminated.countDown();
+            }
+        }
+
+        private synchronized void scheduleNextTick() {
+            if (cancelled || executor.isShutdown()) {
+                return;
+            }
 
-                Request request = context.createRequest();
+            long now = System.currentTimeMillis();
+            long nextTick = schedulingPolicy.getNextTick(tick, now);
+            if (nextTick > tick + 1) {
+                logger.warn("Polling is running behind, skipped ", nextTick - tick - 1, " ticks");
+            }
+            previousTick = tick;
+            tick = nextTick;
+            scheduledTick = executor.schedule(this, schedulingPolicy.getDelay(tick, now), TimeUnit.MILLISECONDS);
+        }
 
-                for (Iterator<Agent> iterator = componentAgents.iterator(); iterator.hasNext();) {
-                    Agent agent = iterator.next();
-                    agent.getCollector().setRequest(request);
-                    logger.debug("Beginning poll cycle for agent: '", agent.getAgentName(), "'");
-                    agent.pollCycle();
-                    logger.debug("Ending poll cycle for agent: '", agent.getAgentName(), "'");
+        /**
+         * Collect metric data from the agents that are due on this tick,
+         * and report it when the harvest is due.
+         * Agents are polled and requests are delivered without holding the lock,
+         * so that adding or removing agents and flushing do not wait for them.
+         */
+        private void pollAndHarvest() {
+            try {
+                List<Agent> dueAgents = pollSchedule.getDueAgents(componentAgents, previousTick, tick);
+                if (pollExecutor != null) {
+                    pollAgentsInParallel(dueAgents);
+                } else {
+                    for (Iterator<Agent> iterator = dueAgents.iterator(); iterator.hasNext();) {
+                        pollAgent(iterator.next());
+                    }
                 }
 
-                request.deliver();
+                if (pollSchedule.isHarvestDue(previousTick, tick)) {
+                    deliver(harvest());
+                }
             } catch (Exception e) {
                 // log exception and continue polling -- could be a transient issue
                 // java.lang.Error(s) are thrown and handled by the main thread
@@ -218,5 +784,190 @@ public class Runner {
                 e.printStackTrace();
             }
         }
+
+        /**
+         * Create a {@link Request} for every tenant {@link Context} that does not have one since the last harvest
+         */
+        private void createRequests() {
+            // tenants can be added by agents added while running
+            synchronized (contexts) {
+                for (Context context : contexts.values()) {
+                    if (!requests.containsKey(context)) {
+                        requests.put(context, context.createRequest());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Fold samples and metric handles into the requests since the last harvest, and swap them out for delivery
+         * @return List the requests to deliver
+         */
+        private synchronized List<Request> harvest() {
+            logger.debug("Harvest and report data");
+            createRequests();
+            for (AgentSampler sampler : samplers) {
+                sampler.harvest(requests.get(sampler.getContext()));
+            }
+            for (Agent agent : componentAgents) {
+                agent.getCollector().harvestMetricHandles(requests.get(agent.getCollector().getContext()));
+            }
+            List<Request> harvested = new ArrayList<Request>(requests.values());
+            requests.clear();
+            // handed off before the lock is released, so that a flush or the removal of an agent does not add to them
+            for (Request request : harvested) {
+                DeliveryQueue.handOff(request);
+            }
+            return harvested;
+        }
+
+        private void deliver(List<Request> harvested) {
+            // tenants share the delivery thread and the JVM's pooled connections to the New Relic service
+            for (Request request : harvested) {
+                if (deliveryQueue != null) {
+                    deliveryQueue.offer(request);
+                } else {
+                    DeliveryQueue.deliverHandedOff(request);
+                }
+            }
+        }
+
+        /**
+         * Fold the metrics of a completed poll cycle into the requests for the next harvest
+         */
+        private synchronized void harvest(AgentPoll poll) {
+            createRequests();
+            poll.harvest(requests.get(poll.getAgent().getCollector().getContext()));
+        }
+
+        /**
+         * Fan out poll cycles to the poll executor and wait for them to complete before returning,
+         * so that the {@link Request} is not delivered while agents are still reporting metrics.
+         * Each poll cycle reports its completion on a queue, and is folded into the harvest as soon as it completes.
+         * A failing agent is logged and does not prevent the other agents from being harvested.
+         * <p> Waiting for an agent stops at its poll deadline, so that a slow agent does not delay the harvest.
+         * An agent whose previous poll cycle is still running is skipped, rather than polled again while it is slow.
+         */
+        private void pollAgentsInParallel(List<Agent> agents) throws InterruptedException {
+            collectLatePolls();
+
+            long startedAt = System.currentTimeMillis();
+            // the deadline of each poll cycle that has not completed yet
+            Map<AgentPoll, Long> pendingPolls = new LinkedHashMap<AgentPoll, Long>();
+            for (Iterator<Agent> iterator = agents.iterator(); iterator.hasNext();) {
+                Agent agent = iterator.next();
+                if (runningPolls.containsKey(agent)) {
+                    long count = overruns.increment(agent);
+                    logger.warn("Previous poll cycle for agent '", agent.getAgentName(), "' is still running, skipping this poll cycle (", count, " overruns)");
+                    continue;
+                }
+                AgentPoll poll = new AgentPoll(agent, getPollRequest(agent));
+                poll.submit(pollExecutor, completedPolls);
+                pendingPolls.put(poll, startedAt + TimeUnit.SECONDS.toMillis(getPollDeadline(agent)));
+            }
+
+            int completed = 0;
+            while (!pendingPolls.isEmpty()) {
+                long timeout = Collections.min(pendingPolls.values()) - System.currentTimeMillis();
+                AgentPoll poll = completedPolls.poll(Math.max(0, timeout), TimeUnit.MILLISECONDS);
+                if (poll == null) {
+                    missDeadlines(pendingPolls);
+                } else if (pendingPolls.remove(poll) != null) {
+                    if (harvestCompleted(poll)) {
+                        completed++;
+                    }
+                } else {
+                    harvestLate(poll);
+                }
+            }
+            logger.debug("Completed poll cycles for ", completed, " of ", agents.size(), " agents");
+        }
+
+        /**
+         * Leave the poll cycles that are past their deadline running, and harvest without them
+         */
+        private void missDeadlines(Map<AgentPoll, Long> pendingPolls) {
+            long now = System.currentTimeMillis();
+            for (Iterator<Map.Entry<AgentPoll, Long>> iterator = pendingPolls.entrySet().iterator(); iterator.hasNext();) {
+                Map.Entry<AgentPoll, Long> entry = iterator.next();
+                if (entry.getValue() <= now) {
+                    iterator.remove();
+                    Agent agent = entry.getKey().getAgent();
+                    runningPolls.put(agent, entry.getKey());
+                    long count = overruns.increment(agent);
+                    logger.warn("Poll cycle for agent '", agent.getAgentName(), "' missed its deadline, harvesting without it (", count, " overruns)");
+                }
+            }
+        }
+
+        /**
+         * Fold the metrics of poll cycles that completed after their deadline into this harvest
+         */
+        private void collectLatePolls() throws InterruptedException {
+            AgentPoll poll;
+            while ((poll = completedPolls.poll()) != null) {
+                harvestLate(poll);
+            }
+        }
+
+        private void harvestLate(AgentPoll poll) throws InterruptedException {
+            if (runningPolls.get(poll.getAgent()) == poll) {
+                runningPolls.remove(poll.getAgent());
+                harvestCompleted(poll);
+            }
+        }
+
+        /**
+         * Fold a completed poll cycle into the harvest, or log its failure
+         * @return boolean true if the poll cycle succeeded
+         */
+        private boolean harvestCompleted(AgentPoll poll) throws InterruptedException {
+            try {
+                poll.await(0);
+                harvest(poll);
+                return true;
+            } catch (ExecutionException e) {
+                logPollFailure(poll.getAgent(), e);
+                return false;
+            }
+        }
+
+        private synchronized Request getPollRequest(Agent agent) {
+            Request request = pollRequests.get(agent);
+            if (request == null) {
+                request = new Request(agent.getCollector().getContext());
+                pollRequests.put(agent, request);
+            }
+            return request;
+        }
+
+        private void logPollFailure(Agent agent, ExecutionException e) {
+            // java.lang.Error(s) are rethrown to be handled by the main thread
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            logger.error(e.getCause(), "An error occurred during the poll cycle for agent: '", agent.getAgentName(), "'");
+        }
+
+        private int getPollDeadline(Agent agent) {
+            return agent.getPollDeadline() > 0 ? agent.getPollDeadline() : pollSchedule.getTickInterval();
+        }
+
+        /*
+         * Poll an agent on the thread that ticks. The harvest has to wait for a slow agent,
+         * but a poll cycle that takes longer than its deadline is still counted as an overrun.
+         */
+        private void pollAgent(Agent agent) {
+            long startedAt = System.currentTimeMillis();
+            AgentPoll poll = new AgentPoll(agent, getPollRequest(agent));
+            poll.call();
+            harvest(poll);
+
+            long elapsed = System.currentTimeMillis() - startedAt;
+            if (elapsed > TimeUnit.SECONDS.toMillis(getPollDeadline(agent))) {
+                long count = overruns.increment(agent);
+                logger.warn("Poll cycle for agent '", agent.getAgentName(), "' took ", elapsed, " ms, longer than its deadline (", count, " overruns)");
+            }
+        }
     }
 }
@@ -0,0 +1,70 @@
+package com.newrelic.metrics.publish;
+
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A handle to a {@link Runner} that was started with {@link Runner#start(ScheduledExecutorService)}.
+ * It is used to flush metrics and to stop polling when the SDK is embedded in an existing application.
+ */
+public final class RunnerHandle {
+
+    private final Runner runner;
+
+    /* package */ RunnerHandle(Runner runner) {
+        this.runner = runner;
+    }
+
+    /**
+     * Harvest and deliver the metrics reported so far, without waiting for the next poll interval.
+     * {@link Agent}s are not polled. A poll cycle in progress is not waited for, and its metrics are delivered with the next harvest.
+     */
+    public void flush() {
+        runner.flush();
+    }
+
+    /**
+     * Stop polling {@link Agent}s. Metrics queued for delivery are delivered before returning,
+     * but metrics reported since the last harvest are not. Call {@link #flush()} first to deliver them.
+     * <p> The {@link ScheduledExecutorService} provided to the {@link Runner} is not shut down.
+     */
+    public void stop() {
+        runner.stop();
+    }
+
+    /**
+     * Is the {@link Runner} polling {@link Agent}s
+     * @return boolean
+     */
+    public boolean isRunning() {
+        return runner.isRunning();
+    }
+
+    /**
+     * Get the number of overruns of each {@link Agent} that has overrun at least once.
+     * A poll cycle overruns when it misses its deadline or is skipped because the previous poll cycle is still running,
+     * and a sample overruns when it is skipped because the previous sample took too long.
+     * @return Map the overrun counts by agent name
+     */
+    public Map<String, Long> getOverrunCounts() {
+        return runner.getOverrunCounts();
+    }
+
+    /**
+     * Get the number of metrics dropped because more than {@code max_retained_metrics} metric names
+     * were reported since the last delivery
+     * @return long the dropped metric count
+     */
+    public long getDroppedMetricCount() {
+        return runner.getDroppedMetricCount();
+    }
+
+    /**
+     * Get the number of metrics that were aggregated into an overflow metric,
+     * because their component reported more than {@code max_component_metrics} metric names
+     * @return long the rejected metric count
+     */
+    public long getRejectedMetricCount() {
+        return runner.getRejectedMetricCount();
+    }
+}
@@ -0,0 +1,97 @@
+package com.newrelic.metrics.publish;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for when the {@link Runner} ticks.
+ * <p> Ticks are laid out on a fixed grid of wall clock times. The delay to each tick is computed from
+ * the grid rather than from the end of the previous tick, so the average cadence stays exact no matter
+ * how long each tick takes or how the scheduler drifts. Ticks that were missed entirely are skipped
+ * instead of being run back to back.
+ * <p> The grid can be shifted by an offset within the harvest interval. Giving each plugin process a
+ * different offset spreads polling and delivery load when many processes are started at the same time.
+ */
+/* package */ class SchedulingPolicy {
+
+    private final long tickMillis;
+    private final long firstTickAt;
+
+    /**
+     * Constructs a {@code SchedulingPolicy}
+     * @param tickInterval the interval in seconds between ticks
+     * @param harvestInterval the interval in seconds between harvests
+     * @param offsetMillis the offset in milliseconds of harvests from the start of each harvest interval of wall clock time,
+     * or {@code null} to start ticking immediately
+     * @param now the current wall clock time in milliseconds
+     */
+    /* package */ SchedulingPolicy(int tickInterval, int harvestInterval, Long offsetMillis, long now) {
+        this.tickMillis = TimeUnit.SECONDS.toMillis(tickInterval);
+
+        if (offsetMillis == null) {
+            firstTickAt = now;
+        } else {
+            // first tick is the next harvest aligned to the offset, since the first tick is always a harvest
+            long harvestMillis = TimeUnit.SECONDS.toMillis(harvestInterval);
+            long offset = offsetMillis % harvestMillis;
+            long sinceAligned = (now - offset) % harvestMillis;
+            if (sinceAligned < 0) {
+                sinceAligned += harvestMillis;
+            }
+            firstTickAt = sinceAligned == 0 ? now : now + harvestMillis - sinceAligned;
+        }
+    }
+
+    /**
+     * Get a deterministic offset within the harvest interval for a seed, such as the host name and agent GUIDs.
+     * @param seed the seed for the offset
+     * @param harvestInterval the interval in seconds between harvests
+     * @return long the offset in milliseconds
+     */
+    /* package */ static long getJitterOffset(String seed, int harvestInterval) {
+        // spread similar seeds (e.g. host names that differ by one digit) across the interval
+        long hash = (seed.hashCode() & 0xffffffffL) * 0x9E3779B97F4A7C15L;
+        return (hash >>> 1) % TimeUnit.SECONDS.toMillis(harvestInterval);
+    }
+
+    /**
+     * Get the wall clock time of a tick
+     * @param tick the tick
+     * @return long the time in milliseconds
+     */
+    /* package */ long getTickAt(long tick) {
+        return firstTickAt + tick * tickMillis;
+    }
+
+    /**
+     * Get the delay before the first tick
+     * @param now the current wall clock time in milliseconds
+     * @return long the delay in milliseconds
+     */
+    /* package */ long getInitialDelay(long now) {
+        return Math.max(0, firstTickAt - now);
+    }
+
+    /**
+     * Get the tick that follows a tick.
+     * If ticks were missed, the most recent missed tick is run late and the ones before it are skipped.
+     * Polls and harvests that were due on skipped ticks run on the late tick, see {@link PollSchedule#getDueAgents(java.util.Collection, long, long)}.
+     * @param tick the tick that has just run
+     * @param now the current wall clock time in milliseconds
+     * @return long the next tick
+     */
+    /* package */ long getNextTick(long tick, long now) {
+        long currentTick = (now - firstTickAt) / tickMillis;
+        return Math.max(tick + 1, currentTick);
+    }
+
+    /**
+     * Get the delay before a tick.
+     * The delay is never longer than one tick interval, which bounds the effect of the wall clock moving backwards.
+     * @param tick the tick
+     * @param now the current wall clock time in milliseconds
+     * @return long the delay in milliseconds
+     */
+    /* package */ long getDelay(long tick, long now) {
+        return Math.min(Math.max(0, getTickAt(tick) - now), tickMillis);
+    }
+}
@@ -1,5 +1,7 @@
 package com.newrelic.metrics.publish.binding;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 
 /**
@@ -15,6 +17,12 @@ public class AgentData {
     public String version;
     public int pid = 0;
 
+    // the encoded agent, and the values it was encoded from
+    private byte[] fragment;
+    private String fragmentHost;
+    private String fragmentVersion;
+    private int fragmentPid;
+
     /* package */ AgentData() {
         super();
     }
@@ -27,4 +35,44 @@ public class AgentData {
         return output;
     }
 
+    /**
+     * Get the most bytes the agent can be written as
+     * @return int the size in bytes
+     */
+    /* package */ int getMaxSize() {
+        return getFragment().length;
+    }
+
+    /* package */ void write(JsonWriter writer) throws IOException {
+        writer.raw(getFragment());
+    }
+
+    /**
+     * Get the agent encoded as JSON.
+     * The agent is the same in every payload, so it is encoded once, and again only if its fields are changed.
+     * @return byte[] the encoded agent
+     */
+    /* package */ synchronized byte[] getFragment() {
+        if (fragment == null || host != fragmentHost || version != fragmentVersion || pid != fragmentPid) {
+            fragmentHost = host;
+            fragmentVersion = version;
+            fragmentPid = pid;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                JsonWriter writer = JsonWriter.forFragment(out);
+                writer.beginObject();
+                writer.name(HOST).value(fragmentHost);
+                writer.name(VERSION).value(fragmentVersion);
+                writer.name(PID).value(fragmentPid);
+                writer.endObject();
+                writer.flush();
+            } catch (IOException e) {
+                // not thrown by ByteArrayOutputStream
+                throw new IllegalStateException(e);
+            }
+            fragment = out.toByteArray();
+        }
+        return fragment;
+    }
+
 }
@@ -0,0 +1,107 @@
+package com.newrelic.metrics.publish.binding;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.zip.Deflater;
+
+/**
+ * A small pool of byte buffers and {@link Deflater}s for delivering {@link Request}s.
+ * <p> Each delivery borrows the buffers it needs to encode, compress and read the response, and returns them when
+ * it completes. Buffers that had to grow, for example to hold a large response, are kept at their grown size,
+ * so steady state deliveries allocate no transient arrays. A {@code Deflater} holds native memory and is
+ * expensive to create, so it is reset and reused rather than ended after each delivery.
+ */
+/* package */ class BufferPool {
+
+    /* package */ static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED = 4;
+
+    private static final BufferPool SHARED = new BufferPool();
+
+    private final ArrayDeque<byte[]> buffers = new ArrayDeque<byte[]>();
+    private final ArrayDeque<Deflater> deflaters = new ArrayDeque<Deflater>();
+
+    /**
+     * Get the pool shared by every {@link Context}
+     * @return BufferPool the shared pool
+     */
+    /* package */ static BufferPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Borrow a buffer of at least a size
+     * @param minSize the minimum size of the buffer
+     * @return byte[] the buffer, which may be larger than requested
+     */
+    /* package */ synchronized byte[] acquire(int minSize) {
+        for (Iterator<byte[]> iterator = buffers.iterator(); iterator.hasNext();) {
+            byte[] buffer = iterator.next();
+            if (buffer.length >= minSize) {
+                iterator.remove();
+                return buffer;
+            }
+        }
+        return new byte[Math.max(minSize, BUFFER_SIZE)];
+    }
+
+    /**
+     * Borrow a buffer that is larger than one that is full, with the contents of the full buffer.
+     * The full buffer is returned to the pool.
+     * @param buffer the full buffer
+     * @return byte[] the larger buffer
+     */
+    /* package */ byte[] grow(byte[] buffer) {
+        byte[] grown = acquire(buffer.length * 2);
+        System.arraycopy(buffer, 0, grown, 0, buffer.length);
+        release(buffer);
+        return grown;
+    }
+
+    /**
+     * Return a buffer to the pool. When the pool is full, the smallest buffer is dropped.
+     * @param buffer the buffer
+     */
+    /* package */ synchronized void release(byte[] buffer) {
+        if (buffers.size() < MAX_POOLED) {
+            buffers.add(buffer);
+            return;
+        }
+        byte[] smallest = buffer;
+        for (byte[] pooled : buffers) {
+            if (pooled.length < smallest.length) {
+                smallest = pooled;
+            }
+        }
+        if (smallest != buffer) {
+            buffers.remove(smallest);
+            buffers.add(buffer);
+        }
+    }
+
+    /**
+     * Borrow a {@link Deflater} that writes raw deflate data, without a zlib header
+     * @return Deflater the deflater
+     */
+    /* package */ synchronized Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    /**
+     * Reset a {@link Deflater} and return it to the pool
+     * @param deflater the deflater
+     */
+    /* package */ synchronized void releaseDeflater(Deflater deflater) {
+        if (deflaters.size() < MAX_POOLED) {
+            deflater.reset();
+            deflaters.add(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    /* package */ synchronized int getPooledBufferCount() {
+        return buffers.size();
+    }
+}
@@ -0,0 +1,29 @@
+package com.newrelic.metrics.publish.binding;
+
+/**
+ * Provisional API which is subject to change.
+ * What a {@link Request} does with a metric name that is reported once its {@link Context} metric budget is used up.
+ * <p> The budget bounds the memory of a {@code Request} that keeps aggregating metrics while deliveries fail.
+ */
+public enum CardinalityPolicy {
+
+    /**
+     * Drop metrics with new names. Metrics that are already in the {@code Request} keep aggregating.
+     */
+    DROP_NEW,
+
+    /**
+     * Drop the metrics that were first reported the longest ago to make room for new names.
+     */
+    DROP_OLDEST;
+
+    /**
+     * Get a {@code CardinalityPolicy} from its configured name, such as {@code drop_new}
+     * @param name the name of the policy
+     * @return CardinalityPolicy the policy
+     * @throws IllegalArgumentException if there is no policy with the name
+     */
+    public static CardinalityPolicy fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
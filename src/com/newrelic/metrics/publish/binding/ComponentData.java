@@ -1,5 +1,7 @@
 package com.newrelic.metrics.publish.binding;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -17,7 +19,12 @@ public class ComponentData {
     
     public String name;
     public String guid;
-    private Date lastSuccessfulReportedAt;
+    private volatile Date lastSuccessfulReportedAt;
+
+    // the encoded name and guid, and the values they were encoded from
+    private byte[] fragment;
+    private String fragmentName;
+    private String fragmentGuid;
 
     /* package */ ComponentData() {
         super();
@@ -45,6 +52,56 @@ public class ComponentData {
         return output;
     }
 
+    /**
+     * Write the component and its metrics in a {@link Request}
+     * @param writer the {@code JsonWriter} to write to
+     * @param metrics the metrics of the component, which must not be empty
+     */
+    /* package */ void write(JsonWriter writer, List<MetricData> metrics) throws IOException {
+        writer.beginObject();
+        writer.raw(getFragment());
+        writer.name(DURATION).value(calculateDuration());
+        writer.name(METRICS).beginObject();
+        for (MetricData metric : metrics) {
+            metric.write(writer);
+        }
+        writer.endObject();
+        writer.endObject();
+    }
+
+    /**
+     * Get the most bytes the component can be written as, not counting its metrics
+     * @return int the size in bytes
+     */
+    /* package */ int getMaxSize() {
+        // braces of the component and its metrics, and a comma before it
+        return 5 + getFragment().length + JsonWriter.sizeOfName(DURATION) + JsonWriter.MAX_INT_SIZE + JsonWriter.sizeOfName(METRICS);
+    }
+
+    /**
+     * Get the name and guid of the component encoded as JSON members.
+     * They are the same in every payload, so they are encoded once, and again only if they are changed.
+     * @return byte[] the encoded name and guid
+     */
+    /* package */ synchronized byte[] getFragment() {
+        if (fragment == null || name != fragmentName || guid != fragmentGuid) {
+            fragmentName = name;
+            fragmentGuid = guid;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                JsonWriter writer = JsonWriter.forFragment(out);
+                writer.name(NAME).value(fragmentName);
+                writer.name(GUID).value(fragmentGuid);
+                writer.flush();
+            } catch (IOException e) {
+                // not thrown by ByteArrayOutputStream
+                throw new IllegalStateException(e);
+            }
+            fragment = out.toByteArray();
+        }
+        return fragment;
+    }
+
     /**
      * Set date timestamp for the last successful report
      * @param lastSuccessfulReportedAt the date of the last successful report
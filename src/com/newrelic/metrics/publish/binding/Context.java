@@ -7,8 +7,11 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -35,6 +38,10 @@ public class Context {
     private static final String AGENT = "agent";
     private static final String COMPONENTS = "components";
     private static final String USER_AGENT = "User-Agent";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String GZIP = "gzip";
+
+    private static final String DEFAULT_OVERFLOW_METRIC_NAME = "Component/MetricOverflow[value]";
 
     private static final long AGGREGATION_LIMIT = TimeUnit.MINUTES.toMillis(20);
     private static final int CONNECTION_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(20);
@@ -44,10 +51,22 @@ public class Context {
 
     private String serviceURI = SERVICE_URI;
     private boolean sslHostVerification = true;
-    private LinkedList<ComponentData> components;
+    private boolean gzip = false;
+    private boolean chunkedStreaming = false;
+    private int maxPayloadSize = 0;
+    private List<ComponentData> components;
 
     private Request lastRequest;
-    private Date aggregationStartedAt;
+    private boolean reuseRequests = false;
+    private boolean compensatedSummation = false;
+    private int maxMetrics = 0;
+    private CardinalityPolicy cardinalityPolicy = CardinalityPolicy.DROP_NEW;
+    private final AtomicLong droppedMetrics = new AtomicLong();
+    private int maxComponentMetrics = 0;
+    private String overflowMetricName = DEFAULT_OVERFLOW_METRIC_NAME;
+    private final AtomicLong rejectedMetrics = new AtomicLong();
+    private Request spareRequest;
+    private volatile Date aggregationStartedAt;
 
     /**
      * Constructs a {@code Context}
@@ -55,7 +74,8 @@ public class Context {
     public Context() {
         super();
         agentData = new AgentData();
-        components = new LinkedList<ComponentData>();
+        // components can be added and removed while requests are created and delivered
+        components = new CopyOnWriteArrayList<ComponentData>();
         lastRequest = new Request(this);
         aggregationStartedAt = new Date();
     }
@@ -65,25 +85,78 @@ public class Context {
      * If the last {@code Request} was not sent successfully, the last {@code Request} will be reused.
      * This guarantees that previously reported metrics will be aggregated with new metrics, and
      * no metric data will be lost if a request was not sent successfully.
+     * <p> A new {@code Request} is also created while the last {@code Request} is in flight on a {@link DeliveryQueue}.
      * @return request
      */
-    public Request createRequest() {
+    public synchronized Request createRequest() {
         if (isPastAggregationLimit()) {
-            lastRequest = new Request(this);
+            lastRequest = nextRequest();
             for (ComponentData component : components) {
                 component.setLastSuccessfulReportedAt(null);
             }
         }
-        else if (isLastRequestDelivered()) {
-            lastRequest = new Request(this);
+        else if (isLastRequestDelivered() || lastRequest.isInFlight()) {
+            lastRequest = nextRequest();
         }
         return lastRequest;
     }
 
+    /**
+     * Get an empty {@link Request}.
+     * When reusing requests, a {@code Request} that is no longer needed is reset in place instead of being replaced.
+     */
+    private Request nextRequest() {
+        if (reuseRequests) {
+            if (!lastRequest.isInFlight()) {
+                lastRequest.reset();
+                return lastRequest;
+            }
+            if (spareRequest != null) {
+                Request request = spareRequest;
+                spareRequest = null;
+                request.reset();
+                return request;
+            }
+        }
+        return new Request(this);
+    }
+
     private boolean isLastRequestDelivered() {
         return lastRequest.isDelivered();
     }
 
+    /**
+     * Mark a {@link Request} as handed off to a {@link DeliveryQueue}, or as returned from it.
+     * @param request the {@code Request}
+     * @param inFlight is the {@code Request} in flight
+     */
+    /* package */ synchronized void setInFlight(Request request, boolean inFlight) {
+        request.setInFlight(inFlight);
+        if (reuseRequests && !inFlight && request.isDelivered() && request != lastRequest) {
+            // delivered while a newer request was aggregating, keep it for the next harvest
+            spareRequest = request;
+        }
+    }
+
+    /**
+     * Aggregate a {@link Request} that was not delivered by a {@link DeliveryQueue} into the last {@code Request},
+     * so that its metrics are sent with the next delivery, as when the last {@code Request} is reused.
+     * The metrics are dropped once past the aggregation limit.
+     * @param request the undelivered {@code Request}
+     */
+    /* package */ synchronized void aggregateUndelivered(Request request) {
+        request.setInFlight(false);
+        if (request == lastRequest) {
+            // no new request was created while in flight, it will be reused by createRequest()
+            return;
+        }
+        if (isPastAggregationLimit()) {
+            logger.debug("Aggregation limit reached, dropping undelivered metrics");
+            return;
+        }
+        lastRequest.aggregateWith(request);
+    }
+
     /* package */ boolean isPastAggregationLimit() {
         if (aggregationStartedAt != null) {
             long aggregationDuration = new Date().getTime() - aggregationStartedAt.getTime();
@@ -110,6 +183,15 @@ public class Context {
         return componentData;
     }
 
+    /**
+     * Remove a {@link ComponentData} whose agent has been removed.
+     * Metrics it reported before it was removed are still delivered with the {@link Request}s they belong to.
+     * @param componentData the {@link ComponentData} to remove
+     */
+    public void removeComponent(ComponentData componentData) {
+        components.remove(componentData);
+    }
+
     /**
      * Get an {@link Iterator} for the list of {@link ComponentData}
      * @return Iterator
@@ -132,6 +214,131 @@ public class Context {
         serviceURI = URI;
     }
 
+    /**
+     * Internal method for reusing {@link Request}s.
+     * When enabled, a delivered {@code Request} is reset in place and returned by the next {@link #createRequest()},
+     * so that steady state harvests do not allocate new metric storage.
+     * A {@code Request} must not be used once it has been delivered.
+     * @param reuseRequests
+     */
+    public void internalSetReuseRequests(boolean reuseRequests) {
+        this.reuseRequests = reuseRequests;
+    }
+
+    /**
+     * Internal method for aggregating {@link MetricData} with compensated summation.
+     * It reduces the rounding error of totals and sums of squares when many samples are aggregated.
+     * @param compensatedSummation
+     */
+    public void internalSetCompensatedSummation(boolean compensatedSummation) {
+        this.compensatedSummation = compensatedSummation;
+    }
+
+    /* package */ boolean isCompensatedSummation() {
+        return compensatedSummation;
+    }
+
+    /**
+     * Internal method for bounding the number of metric names a {@link Request} holds.
+     * A {@code Request} that is reused while deliveries fail otherwise grows with every new metric name
+     * until the aggregation limit is reached.
+     * @param maxMetrics the maximum number of metrics in a {@code Request}, or 0 for no limit
+     * @param cardinalityPolicy what to drop once the limit is reached
+     */
+    public void internalSetMetricBudget(int maxMetrics, CardinalityPolicy cardinalityPolicy) {
+        this.maxMetrics = maxMetrics;
+        this.cardinalityPolicy = cardinalityPolicy;
+    }
+
+    /* package */ int getMaxMetrics() {
+        return maxMetrics;
+    }
+
+    /* package */ CardinalityPolicy getCardinalityPolicy() {
+        return cardinalityPolicy;
+    }
+
+    /* package */ void countDroppedMetric() {
+        droppedMetrics.incrementAndGet();
+    }
+
+    /**
+     * Get the number of metrics dropped because a {@link Request} exceeded its metric budget.
+     * With {@link CardinalityPolicy#DROP_NEW}, each report of a dropped name is counted.
+     * @return long the dropped metric count
+     */
+    public long getDroppedMetricCount() {
+        return droppedMetrics.get();
+    }
+
+    /**
+     * Internal method for limiting the number of metric names each component can report in a {@link Request}.
+     * Metrics over the limit are aggregated into an overflow metric of the component, so that one agent
+     * reporting unbounded metric names does not grow the payload and heap for every agent.
+     * @param maxComponentMetrics the maximum number of metrics of a component, or 0 for no limit
+     * @param overflowMetricName the full name of the metric that metrics over the limit are aggregated into,
+     * or null for the default
+     */
+    public void internalSetComponentMetricLimit(int maxComponentMetrics, String overflowMetricName) {
+        this.maxComponentMetrics = maxComponentMetrics;
+        this.overflowMetricName = overflowMetricName != null ? overflowMetricName : DEFAULT_OVERFLOW_METRIC_NAME;
+    }
+
+    /* package */ int getMaxComponentMetrics() {
+        return maxComponentMetrics;
+    }
+
+    /* package */ String getOverflowMetricName() {
+        return overflowMetricName;
+    }
+
+    /* package */ void countRejectedMetric() {
+        rejectedMetrics.incrementAndGet();
+    }
+
+    /**
+     * Get the number of metrics that were aggregated into the overflow metric of their component,
+     * because the component reported more metric names than its limit.
+     * @return long the rejected metric count
+     */
+    public long getRejectedMetricCount() {
+        return rejectedMetrics.get();
+    }
+
+    /**
+     * Internal method for compressing {@link Request}s with {@code Content-Encoding: gzip}
+     * @param gzip
+     */
+    public void internalSetGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /* package */ boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Internal method for streaming {@link Request}s with {@code Transfer-Encoding: chunked} as they are written,
+     * rather than buffering each POST to send its {@code Content-Length}
+     * @param chunkedStreaming
+     */
+    public void internalSetChunkedStreaming(boolean chunkedStreaming) {
+        this.chunkedStreaming = chunkedStreaming;
+    }
+
+    /**
+     * Internal method for limiting the size of each POST to the New Relic service.
+     * A {@link Request} that is larger is split along component and metric boundaries into several POSTs.
+     * @param maxPayloadSize the maximum size in bytes of the uncompressed JSON of a POST, or 0 for no limit
+     */
+    public void internalSetMaxPayloadSize(int maxPayloadSize) {
+        this.maxPayloadSize = maxPayloadSize;
+    }
+
+    /* package */ int getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
     /**
      * Internal method for setting ssl host verification
      * @param sslHostVerification
@@ -159,6 +366,9 @@ public class Context {
         connection.setRequestMethod(POST);
         connection.addRequestProperty(X_LICENSE_KEY, licenseKey);
         connection.addRequestProperty(CONTENT_TYPE, APPLICATION_JSON);
+        if (gzip) {
+            connection.addRequestProperty(CONTENT_ENCODING, GZIP);
+        }
         connection.addRequestProperty(ACCEPT, APPLICATION_JSON);
         connection.setConnectTimeout(CONNECTION_TIMEOUT);
         connection.setReadTimeout(CONNECTION_TIMEOUT);
@@ -177,6 +387,10 @@ public class Context {
         }
 
         connection.setDoOutput(true);
+        // some proxies reject chunked request bodies, so the payload is buffered to send its content length unless asked not to
+        if (chunkedStreaming) {
+            connection.setChunkedStreamingMode(0);
+        }
         return connection;
     }
 
@@ -187,7 +401,8 @@ public class Context {
         LinkedList<HashMap<String, Object>> componentsOutput = new LinkedList<HashMap<String, Object>>();
         output.put(COMPONENTS, componentsOutput);
 
-        for (ComponentData component : components) {
+        // components of the request rather than of the context, so that removed components are still delivered
+        for (ComponentData component : request.getComponents()) {
             HashMap<String, Object> map = component.serialize(request);
 
             if(!map.isEmpty()) {
@@ -198,6 +413,35 @@ public class Context {
         return output;
     }
     
+    /**
+     * Write a payload of a {@link Request} as JSON, in the same format as {@link #serialize(Request)}.
+     * Each component and metric is written as it is visited, so no copy of the payload is built in memory.
+     * @param payload the metrics of each component in the payload
+     * @param writer the {@code JsonWriter} to write to
+     * @throws IOException if writing fails
+     */
+    /* package */ void write(Map<ComponentData, List<MetricData>> payload, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name(AGENT);
+        agentData.write(writer);
+
+        writer.name(COMPONENTS).beginArray();
+        for (Map.Entry<ComponentData, List<MetricData>> entry : payload.entrySet()) {
+            entry.getKey().write(writer, entry.getValue());
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Get the most bytes a payload can be written as, not counting its components
+     * @return int the size in bytes
+     */
+    /* package */ int getMaxEnvelopeSize() {
+        return 4 + JsonWriter.sizeOfName(AGENT) + agentData.getMaxSize() + JsonWriter.sizeOfName(COMPONENTS);
+    }
+
     /* package */ String getUserAgentString() {
     	return String.format("JavaSDK/%s (%s %s)", Config.getSdkVersion(), System.getProperty("os.name"), System.getProperty("os.version"));
     }
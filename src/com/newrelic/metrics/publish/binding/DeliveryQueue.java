@@ -0,0 +1,119 @@
+package com.newrelic.metrics.publish.binding;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.newrelic.metrics.publish.util.Logger;
+
+/**
+ * Provisional API which is subject to change.
+ * Delivers {@link Request}s to the New Relic metrics API on its own thread, so that harvesting
+ * metrics is not delayed by slow responses from the New Relic service.
+ *
+ * <p> {@code Request}s are handed off through a bounded queue. If the queue is full, the {@code Request}
+ * is not handed off and is reused by {@link Context#createRequest()} to aggregate metrics until a later harvest.
+ * A {@code Request} that fails to be delivered is aggregated into the next {@code Request} of its {@link Context}.
+ */
+public class DeliveryQueue {
+
+    private static final Logger logger = Logger.getLogger(DeliveryQueue.class);
+
+    private static final String THREAD_NAME = "New Relic Delivery";
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructs a {@code DeliveryQueue}
+     * @param capacity the number of {@link Request}s that can wait for delivery
+     */
+    public DeliveryQueue(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * Constructs a {@code DeliveryQueue}
+     * @param capacity the number of {@link Request}s that can wait for delivery
+     * @param daemon whether requests are delivered on a daemon thread, which does not keep the JVM alive
+     */
+    public DeliveryQueue(int capacity, final boolean daemon) {
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(daemon);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Hand off a {@link Request} for delivery.
+     * @param request the {@code Request} to deliver
+     * @return boolean true if the {@code Request} was queued, false if the queue is full
+     */
+    public boolean offer(final Request request) {
+        final Context context = request.getContext();
+        context.setInFlight(request, true);
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(context, request);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // aggregated into a Request created while it was handed off, if there is one
+            context.aggregateUndelivered(request);
+            logger.warn("Delivery queue is full, metrics will be aggregated into the next harvest");
+            return false;
+        }
+    }
+
+    /**
+     * Stop accepting {@link Request}s and wait for queued {@code Request}s to be delivered.
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the timeout
+     * @return boolean true if all queued {@code Request}s were delivered before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Mark a {@link Request} as handed off for delivery, so that {@link Context#createRequest()} creates
+     * a new {@code Request} rather than returning one that is about to be delivered.
+     * @param request the {@code Request} to hand off
+     */
+    public static void handOff(Request request) {
+        request.getContext().setInFlight(request, true);
+    }
+
+    /**
+     * Deliver a {@link Request} that was handed off on the calling thread.
+     * As when it is delivered from the queue, a {@code Request} that fails to be delivered is aggregated into
+     * the next {@code Request} of its {@link Context}.
+     * @param request the {@code Request} to deliver
+     */
+    public static void deliverHandedOff(Request request) {
+        deliver(request.getContext(), request);
+    }
+
+    private static void deliver(Context context, Request request) {
+        try {
+            request.deliver();
+        } finally {
+            if (request.isDelivered()) {
+                context.setInFlight(request, false);
+            } else {
+                context.aggregateUndelivered(request);
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.newrelic.metrics.publish.binding;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes JSON as UTF-8 bytes straight to an {@link OutputStream}.
+ * <p> A {@link Request} is written by walking its components and metrics once, without building
+ * a tree of maps, a {@code String} of the whole payload, or its encoded bytes.
+ * Names and values are separated with commas as they are written.
+ */
+/* package */ class JsonWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int FRAGMENT_BUFFER_SIZE = 256;
+    // the longest float and int values, such as -1.17549435E-38 and -2147483648
+    /* package */ static final int MAX_FLOAT_SIZE = 15;
+    /* package */ static final int MAX_INT_SIZE = 11;
+    private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position = 0;
+    private boolean needsComma = false;
+
+    /**
+     * Constructs a {@code JsonWriter}
+     * @param out the stream to write to
+     */
+    /* package */ JsonWriter(OutputStream out) {
+        this(out, new byte[BUFFER_SIZE]);
+    }
+
+    /**
+     * Constructs a {@code JsonWriter} that buffers writes in a buffer it is given
+     * @param out the stream to write to
+     * @param buffer the buffer
+     */
+    /* package */ JsonWriter(OutputStream out, byte[] buffer) {
+        this.out = out;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Constructs a {@code JsonWriter} that buffers a small fragment of JSON
+     * @param out the stream to write to
+     * @return JsonWriter the writer
+     */
+    /* package */ static JsonWriter forFragment(OutputStream out) {
+        return new JsonWriter(out, new byte[FRAGMENT_BUFFER_SIZE]);
+    }
+
+    /* package */ JsonWriter beginObject() throws IOException {
+        separate();
+        put('{');
+        needsComma = false;
+        return this;
+    }
+
+    /* package */ JsonWriter endObject() throws IOException {
+        put('}');
+        needsComma = true;
+        return this;
+    }
+
+    /* package */ JsonWriter beginArray() throws IOException {
+        separate();
+        put('[');
+        needsComma = false;
+        return this;
+    }
+
+    /* package */ JsonWriter endArray() throws IOException {
+        put(']');
+        needsComma = true;
+        return this;
+    }
+
+    /* package */ JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        put(':');
+        needsComma = false;
+        return this;
+    }
+
+    /* package */ JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            ascii("null");
+        } else {
+            string(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    /* package */ JsonWriter value(long value) throws IOException {
+        separate();
+        if (value == Long.MIN_VALUE) {
+            ascii(Long.toString(value));
+        } else {
+            if (value < 0) {
+                put('-');
+                value = -value;
+            }
+            digits(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    /* package */ JsonWriter value(float value) throws IOException {
+        separate();
+        ascii(Float.toString(value));
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write a value that was already encoded, such as a fragment built by another {@code JsonWriter}
+     * @param fragment the encoded value
+     */
+    /* package */ JsonWriter raw(byte[] fragment) throws IOException {
+        separate();
+        if (fragment.length > buffer.length - position) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        if (fragment.length > buffer.length) {
+            out.write(fragment);
+        } else {
+            System.arraycopy(fragment, 0, buffer, position, fragment.length);
+            position += fragment.length;
+        }
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Get the number of bytes a string is written as, including its quotes
+     * @param value the string
+     * @return int the size in bytes
+     */
+    /* package */ static int sizeOf(String value) {
+        if (value == null) {
+            return 4;
+        }
+        int size = 2;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                size += 2;
+            } else if (c < 0x20) {
+                size += (c == '\b' || c == '\f' || c == '\n' || c == '\r' || c == '\t') ? 2 : 6;
+            } else if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                size += 1;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the most bytes a name is written as, including its quotes, the colon after it, and a comma before it
+     * @param name the name
+     * @return int the size in bytes
+     */
+    /* package */ static int sizeOfName(String name) {
+        return sizeOf(name) + 2;
+    }
+
+    /**
+     * Write buffered bytes to the stream
+     */
+    /* package */ void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        out.flush();
+    }
+
+    private void separate() throws IOException {
+        if (needsComma) {
+            put(',');
+        }
+    }
+
+    private void digits(long value) throws IOException {
+        if (value >= 10) {
+            digits(value / 10);
+        }
+        put('0' + (int) (value % 10));
+    }
+
+    private void ascii(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            put(value.charAt(i));
+        }
+    }
+
+    /*
+     * Write a quoted string, escaping quotes, backslashes and control characters, and encoding the rest as UTF-8
+     */
+    private void string(String value) throws IOException {
+        put('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c < 0x20) {
+                escape(c);
+            } else if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                put(0xc0 | (c >> 6));
+                put(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                put(0xf0 | (codePoint >> 18));
+                put(0x80 | ((codePoint >> 12) & 0x3f));
+                put(0x80 | ((codePoint >> 6) & 0x3f));
+                put(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, as encoded by String.getBytes()
+                put('?');
+            } else {
+                put(0xe0 | (c >> 12));
+                put(0x80 | ((c >> 6) & 0x3f));
+                put(0x80 | (c & 0x3f));
+            }
+        }
+        put('"');
+    }
+
+    private void escape(char c) throws IOException {
+        put('\\');
+        switch (c) {
+            case '\b': put('b'); break;
+            case '\f': put('f'); break;
+            case '\n': put('n'); break;
+            case '\r': put('r'); break;
+            case '\t': put('t'); break;
+            default:
+                put('u');
+                put('0');
+                put('0');
+                put(HEX_DIGITS[c >> 4]);
+                put(HEX_DIGITS[c & 0xf]);
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (position == buffer.length) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        buffer[position++] = (byte) b;
+    }
+}
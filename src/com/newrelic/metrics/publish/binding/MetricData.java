@@ -1,48 +1,132 @@
 package com.newrelic.metrics.publish.binding;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 
 /**
  * Provisional API which is subject to change.
  * Represents a metric for reporting to the New Relic metrics API.
- * All metric values are stored as {@code floats}.
+ * Metric values are accumulated as {@code doubles}, so that aggregating many samples does not lose precision
+ * or saturate, and are narrowed to {@code floats} when serialized.
+ * <p> With compensated summation, the rounding error of the total and the sum of squares is tracked
+ * and added back when serialized, which keeps the totals of millions of samples exact to within a few units
+ * in the last place.
  */
 public class MetricData {
     /* package */ String name;
     /* package */ int count;
-    /* package */ float value;
-    /* package */ float minValue;
-    /* package */ float maxValue;
-    /* package */ float sumOfSquares;
+    /* package */ double value;
+    /* package */ double minValue;
+    /* package */ double maxValue;
+    /* package */ double sumOfSquares;
+    // a slot that was reset and has not been reported to since
+    /* package */ boolean empty;
+    /* package */ boolean compensated;
+    private double valueCompensation;
+    private double sumOfSquaresCompensation;
 
     /* package */ MetricData(String name, Number value) {
-        this(name, 1, value.floatValue(), value.floatValue(), value.floatValue(), value.floatValue() * value.floatValue());
+        this(name, 1, value.doubleValue(), value.doubleValue(), value.doubleValue(), value.doubleValue() * value.doubleValue());
     }
 
     /* package */ MetricData(String name, int count, Number value, Number minValue, Number maxValue, Number sumOfSquares) {
+        this(name, count, value.doubleValue(), minValue.doubleValue(), maxValue.doubleValue(), sumOfSquares.doubleValue());
+    }
+
+    /* package */ MetricData(String name, int count, double value, double minValue, double maxValue, double sumOfSquares) {
         this.name = name;
         this.count = count;
-        this.value = value.floatValue();
-        this.minValue = minValue.floatValue();
-        this.maxValue = maxValue.floatValue();
-        this.sumOfSquares = sumOfSquares.floatValue();
+        this.value = value;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.sumOfSquares = sumOfSquares;
         convertValues();
     }
 
     /* package */ void serialize(HashMap<String, Object> data) {
-        data.put(name, Arrays.<Number>asList(value, count, minValue, maxValue, sumOfSquares));
+        data.put(name, Arrays.<Number>asList(narrow(getTotal()), count, narrow(minValue), narrow(maxValue),
+                narrow(getTotalSumOfSquares())));
+    }
+
+    /* package */ void write(JsonWriter writer) throws IOException {
+        writer.name(name).beginArray();
+        writer.value(narrow(getTotal()));
+        writer.value(count);
+        writer.value(narrow(minValue));
+        writer.value(narrow(maxValue));
+        writer.value(narrow(getTotalSumOfSquares()));
+        writer.endArray();
+    }
+
+    /**
+     * Get the most bytes the metric can be written as
+     * @return int the size in bytes
+     */
+    /* package */ int getMaxSize() {
+        // name, brackets, four floats and a count separated by commas
+        return JsonWriter.sizeOfName(name) + 2 + 4 * JsonWriter.MAX_FLOAT_SIZE + JsonWriter.MAX_INT_SIZE + 4;
     }
 
     /* package */ void aggregrateWith(MetricData other) {
-        count += other.count;
-        value += other.value;
-        minValue = Math.min(minValue, other.minValue);
-        maxValue = Math.max(maxValue, other.maxValue);
-        sumOfSquares += other.sumOfSquares;
+        aggregate(other.count, other.getTotal(), other.minValue, other.maxValue, other.getTotalSumOfSquares());
+    }
+
+    /* package */ double getTotal() {
+        return value + valueCompensation;
+    }
+
+    /* package */ double getTotalSumOfSquares() {
+        return sumOfSquares + sumOfSquaresCompensation;
+    }
+
+    /**
+     * Aggregate reported values into this metric without creating another {@code MetricData}.
+     * The values are converted as if they were reported in a new {@code MetricData}.
+     */
+    /* package */ void aggregate(int count, double value, double minValue, double maxValue, double sumOfSquares) {
+        if (empty) {
+            empty = false;
+            this.count = count;
+            this.value = value;
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+            this.sumOfSquares = sumOfSquares;
+            convertValues();
+            return;
+        }
+        this.count += count;
+        this.minValue = Math.min(this.minValue, convert(minValue));
+        this.maxValue = Math.max(this.maxValue, convert(maxValue));
+        if (compensated) {
+            double newValue = this.value + convert(value);
+            valueCompensation += compensation(this.value, convert(value), newValue);
+            this.value = newValue;
+
+            double newSumOfSquares = this.sumOfSquares + convert(sumOfSquares);
+            sumOfSquaresCompensation += compensation(this.sumOfSquares, convert(sumOfSquares), newSumOfSquares);
+            this.sumOfSquares = newSumOfSquares;
+        } else {
+            this.value += convert(value);
+            this.sumOfSquares += convert(sumOfSquares);
+        }
         convertValues();
     }
 
+    /**
+     * Zero the metric so that the slot can be reused by the next poll cycle without being reported until then
+     */
+    /* package */ void reset() {
+        empty = true;
+        count = 0;
+        value = 0.0;
+        minValue = 0.0;
+        maxValue = 0.0;
+        sumOfSquares = 0.0;
+        valueCompensation = 0.0;
+        sumOfSquaresCompensation = 0.0;
+    }
+
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("Metric: ").append(name).append(", ");
@@ -83,26 +167,42 @@ public class MetricData {
     }
     
     private void convertValues() {
-        convertInfiniteValues();
-        convertNaNValues();
+        value = convert(value);
+        maxValue = convert(maxValue);
+        minValue = convert(minValue);
+        sumOfSquares = convert(sumOfSquares);
+        if (Double.isInfinite(valueCompensation) || Double.isNaN(valueCompensation)) { valueCompensation = 0.0; }
+        if (Double.isInfinite(sumOfSquaresCompensation) || Double.isNaN(sumOfSquaresCompensation)) { sumOfSquaresCompensation = 0.0; }
+    }
+    
+    /*
+     * Convert infinite values to the largest and smallest floats, and NaN values to 0
+     */
+    private static double convert(double value) {
+        if (Double.POSITIVE_INFINITY == value) { return Float.MAX_VALUE; }
+        if (Double.NEGATIVE_INFINITY == value) { return Float.MIN_VALUE; }
+        if (Double.isNaN(value)) { return 0.0; }
+        return value;
     }
     
-    private void convertInfiniteValues() {
-        if (Float.POSITIVE_INFINITY == value) { value = Float.MAX_VALUE; }
-        if (Float.POSITIVE_INFINITY == maxValue) { maxValue = Float.MAX_VALUE; }
-        if (Float.POSITIVE_INFINITY == minValue) { minValue = Float.MAX_VALUE; }
-        if (Float.POSITIVE_INFINITY == sumOfSquares) { sumOfSquares = Float.MAX_VALUE; }
-        
-        if (Float.NEGATIVE_INFINITY == value) { value = Float.MIN_VALUE; }
-        if (Float.NEGATIVE_INFINITY == maxValue) { maxValue = Float.MIN_VALUE; }
-        if (Float.NEGATIVE_INFINITY == minValue) { minValue = Float.MIN_VALUE; }
-        if (Float.NEGATIVE_INFINITY == sumOfSquares) { sumOfSquares = Float.MIN_VALUE; }
+    /*
+     * Narrow a value to a float for the New Relic metrics API, with the same conversions as reported values
+     */
+    private static float narrow(double value) {
+        float narrowed = (float) value;
+        if (Float.POSITIVE_INFINITY == narrowed) { return Float.MAX_VALUE; }
+        if (Float.NEGATIVE_INFINITY == narrowed) { return Float.MIN_VALUE; }
+        if (Float.isNaN(narrowed)) { return 0.0f; }
+        return narrowed;
     }
     
-    private void convertNaNValues() {
-        if (Float.isNaN(value)) { value = 0.0f; }
-        if (Float.isNaN(maxValue)) { maxValue = 0.0f; }
-        if (Float.isNaN(minValue)) { minValue = 0.0f; }
-        if (Float.isNaN(sumOfSquares)) { sumOfSquares = 0.0f; }
+    /*
+     * The rounding error of sum = a + b (Neumaier's variant of Kahan summation)
+     */
+    private static double compensation(double a, double b, double sum) {
+        if (Math.abs(a) >= Math.abs(b)) {
+            return (a - sum) + b;
+        }
+        return (b - sum) + a;
     }
 }
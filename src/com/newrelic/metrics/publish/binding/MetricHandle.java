@@ -0,0 +1,145 @@
+package com.newrelic.metrics.publish.binding;
+
+/**
+ * Provisional API which is subject to change.
+ * A metric that is declared once and recorded many times.
+ * <p> A {@code MetricHandle} is bound to a {@link ComponentData} and a metric name, and aggregates recorded values
+ * into its own count, total, min, max and sum of squares. Recording is a field update, with no name lookup and
+ * no allocation. The aggregate is moved into the {@link Request} of each harvest with {@link Request#addMetric(MetricHandle)},
+ * so a handle stays valid for every {@code Request} its {@link Context} creates.
+ * <p> Recording is thread safe. A handle created with a concurrency greater than 1 is striped: each thread records into
+ * one of several independently locked accumulators, chosen by its thread id, and the accumulators are merged at harvest.
+ * Many threads can then record the same metric without contending on a single lock.
+ */
+public final class MetricHandle {
+
+    private static final int MAX_STRIPES = 64;
+
+    private final ComponentData component;
+    private final String name;
+    private final Accumulator[] stripes;
+    private final int stripeMask;
+
+    /**
+     * Constructs a {@code MetricHandle} that is recorded from one thread at a time
+     * @param component the {@code ComponentData} the metric belongs to
+     * @param name the full name of the metric
+     */
+    public MetricHandle(ComponentData component, String name) {
+        this(component, name, 1);
+    }
+
+    /**
+     * Constructs a {@code MetricHandle}
+     * @param component the {@code ComponentData} the metric belongs to
+     * @param name the full name of the metric
+     * @param concurrency the number of threads expected to record at the same time.
+     * It is rounded up to a power of two, up to 64 stripes.
+     */
+    public MetricHandle(ComponentData component, String name, int concurrency) {
+        this.component = component;
+        this.name = name;
+
+        int stripeCount = 1;
+        while (stripeCount < concurrency && stripeCount < MAX_STRIPES) {
+            stripeCount <<= 1;
+        }
+        this.stripes = new Accumulator[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Accumulator();
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * Get the full name of the metric
+     * @return String the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /* package */ int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Record a value.
+     * The count is 1, while minValue and maxValue are set to value.
+     * Sum of squares is calculated as the value squared.
+     * @param value the value to record
+     */
+    public void record(double value) {
+        record(1, value, value, value, value * value);
+    }
+
+    /**
+     * Record a count, value, minValue, maxValue and sumOfSquares
+     * @param count the number of things being measured
+     * @param value the value to record
+     * @param minValue the minimum value to record
+     * @param maxValue the maximum value to record
+     * @param sumOfSquares the sum of squared values to record
+     */
+    public void record(int count, double value, double minValue, double maxValue, double sumOfSquares) {
+        getStripe().record(count, value, minValue, maxValue, sumOfSquares);
+    }
+
+    /**
+     * Move the values recorded since the last harvest into a {@link Request}.
+     * Each stripe is drained under its own lock, so recording threads are only blocked while their stripe is drained.
+     */
+    /* package */ void harvest(Request request) {
+        Accumulator merged = new Accumulator();
+        for (Accumulator stripe : stripes) {
+            stripe.drainTo(merged);
+        }
+        if (merged.count == 0) {
+            return;
+        }
+        request.addMetric(component, name, merged.count, merged.value, merged.minValue, merged.maxValue, merged.sumOfSquares);
+    }
+
+    private Accumulator getStripe() {
+        if (stripeMask == 0) {
+            return stripes[0];
+        }
+        // thread ids are sequential, so spread them before masking
+        long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash >>> 32) & stripeMask];
+    }
+
+    private static final class Accumulator {
+        private int count;
+        private double value;
+        private double minValue;
+        private double maxValue;
+        private double sumOfSquares;
+        // keep stripes on separate cache lines
+        @SuppressWarnings("unused")
+        private long p0, p1, p2, p3, p4, p5, p6;
+
+        synchronized void record(int count, double value, double minValue, double maxValue, double sumOfSquares) {
+            if (this.count == 0) {
+                this.minValue = minValue;
+                this.maxValue = maxValue;
+            } else {
+                this.minValue = Math.min(this.minValue, minValue);
+                this.maxValue = Math.max(this.maxValue, maxValue);
+            }
+            this.count += count;
+            this.value += value;
+            this.sumOfSquares += sumOfSquares;
+        }
+
+        synchronized void drainTo(Accumulator into) {
+            if (count == 0) {
+                return;
+            }
+            into.record(count, value, minValue, maxValue, sumOfSquares);
+            count = 0;
+            value = 0;
+            sumOfSquares = 0;
+        }
+    }
+}
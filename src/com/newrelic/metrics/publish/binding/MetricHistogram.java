@@ -0,0 +1,117 @@
+package com.newrelic.metrics.publish.binding;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Provisional API which is subject to change.
+ * A histogram of recorded values that is reported as percentiles.
+ * <p> Values are counted in log-linear buckets: every power of two from 2^-10 to 2^40 is split into 64 linear
+ * sub-buckets, so a percentile is reported within 1/64 (about 1.6%) of the recorded value. Values below 2^-10 are
+ * counted as 0, and values above 2^41 are counted in the highest bucket. Memory is fixed at about 26KB per histogram,
+ * however many values are recorded, and recording is a single atomic increment with no lock.
+ * <p> At each harvest, the upper bound of the bucket that holds each configured percentile is added to the
+ * {@link Request} as a metric of its own, for example {@code Component/Requests/ResponseTime/p99[ms]},
+ * and the histogram starts over.
+ */
+public final class MetricHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_EXPONENT = -10;
+    private static final int MAX_EXPONENT = 40;
+    // bucket 0 counts values below 2^MIN_EXPONENT
+    private static final int BUCKET_COUNT = 1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKET_COUNT;
+
+    // counts are drained into one scratch array shared by every histogram, which harvests are serialized on
+    private static final long[] SNAPSHOT = new long[BUCKET_COUNT];
+
+    private final ComponentData component;
+    private final double[] percentiles;
+    private final String[] names;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Constructs a {@code MetricHistogram}
+     * @param component the {@code ComponentData} the metric belongs to
+     * @param percentiles the percentiles to report, between 0 and 100
+     * @param names the full metric name to report each percentile as
+     * @throws IllegalArgumentException if a percentile is out of range or there is not one name per percentile
+     */
+    public MetricHistogram(ComponentData component, double[] percentiles, String[] names) {
+        if (percentiles.length != names.length) {
+            throw new IllegalArgumentException("A name is required for each percentile");
+        }
+        for (double percentile : percentiles) {
+            if (!(percentile > 0 && percentile <= 100)) {
+                throw new IllegalArgumentException("Percentile must be greater than 0 and at most 100: " + percentile);
+            }
+        }
+        this.component = component;
+        this.percentiles = percentiles.clone();
+        this.names = names.clone();
+    }
+
+    /**
+     * Record a value. Negative and NaN values are ignored.
+     * @param value the value to record
+     */
+    public void record(double value) {
+        if (value >= 0) {
+            buckets.incrementAndGet(getBucket(value));
+        }
+    }
+
+    /**
+     * Move the percentiles of the values recorded since the last harvest into a {@link Request}
+     */
+    /* package */ void harvest(Request request) {
+        synchronized (SNAPSHOT) {
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                SNAPSHOT[i] = buckets.getAndSet(i, 0);
+                total += SNAPSHOT[i];
+            }
+            if (total == 0) {
+                return;
+            }
+
+            for (int i = 0; i < percentiles.length; i++) {
+                double value = getUpperBound(getBucketAtRank(Math.max(1, (long) Math.ceil(percentiles[i] / 100 * total))));
+                request.addMetric(component, names[i], 1, value, value, value, value * value);
+            }
+        }
+    }
+
+    private static int getBucketAtRank(long rank) {
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += SNAPSHOT[i];
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return BUCKET_COUNT - 1;
+    }
+
+    /* package */ static int getBucket(double value) {
+        int exponent = Math.getExponent(value);
+        if (exponent < MIN_EXPONENT) {
+            return 0;
+        }
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        // the top bits of the mantissa select the linear sub-bucket within the power of two
+        int subBucket = (int) (Double.doubleToRawLongBits(value) >>> (52 - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /* package */ static double getUpperBound(int bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+        int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKET_COUNT;
+        int subBucket = (bucket - 1) % SUB_BUCKET_COUNT;
+        return Math.scalb(1.0 + (subBucket + 1.0) / SUB_BUCKET_COUNT, exponent);
+    }
+}
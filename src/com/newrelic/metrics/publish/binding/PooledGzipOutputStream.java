@@ -0,0 +1,78 @@
+package com.newrelic.metrics.publish.binding;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses a stream in the gzip format, like {@link java.util.zip.GZIPOutputStream},
+ * with a {@link java.util.zip.Deflater} and buffer borrowed from a {@link BufferPool}.
+ * They are returned to the pool when the stream is closed.
+ */
+/* package */ class PooledGzipOutputStream extends DeflaterOutputStream {
+
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final BufferPool pool;
+    private final CRC32 crc = new CRC32();
+    private boolean released = false;
+
+    /**
+     * Constructs a {@code PooledGzipOutputStream} and writes the gzip header
+     * @param out the stream to write compressed data to
+     * @param pool the pool to borrow from
+     * @throws IOException if the header cannot be written
+     */
+    /* package */ PooledGzipOutputStream(OutputStream out, BufferPool pool) throws IOException {
+        super(out, pool.acquireDeflater(), 1);
+        this.pool = pool;
+        this.buf = pool.acquire(BufferPool.BUFFER_SIZE);
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    /**
+     * Finish compressing and write the gzip trailer, without closing the stream
+     */
+    @Override
+    public void finish() throws IOException {
+        if (!def.finished()) {
+            def.finish();
+            while (!def.finished()) {
+                int length = def.deflate(buf, 0, buf.length);
+                if (length > 0) {
+                    out.write(buf, 0, length);
+                }
+            }
+            writeInt((int) crc.getValue());
+            writeInt((int) def.getBytesRead());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (!released) {
+                released = true;
+                pool.releaseDeflater(def);
+                pool.release(buf);
+            }
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        // gzip integers are little endian
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+}
@@ -1,16 +1,18 @@
 package com.newrelic.metrics.publish.binding;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
@@ -23,6 +25,7 @@ import com.newrelic.metrics.publish.util.Logger;
  * 
  * <p> A {@code Request} has an associated {@link Context} and a list of metrics for a given component.
  * The {@code Request} is sent in the JSON format.
+ * <p> Metrics may be added concurrently from multiple threads, for example when agents are polled in parallel.
  *
  */
 public class Request {
@@ -30,15 +33,24 @@ public class Request {
     private static final Logger logger = Logger.getLogger(Request.class);
     
     private static final String EMPTY_STRING = "";
+    private static final String UTF_8 = "UTF-8";
     private static final String STATUS = "status";
     private static final String OK_STATUS = "ok";
     private static final String DISABLE_NEW_RELIC = "DISABLE_NEW_RELIC";
     private static final int EXIT_CODE = 1;
 
     private final Context context;
-    private final HashMap<ComponentData, LinkedList<MetricData>> metrics = new HashMap<ComponentData, LinkedList<MetricData>>(); 
+    // metrics of each component are indexed by name, in the order they were first reported
+    private final LinkedHashMap<ComponentData, LinkedHashMap<String, MetricData>> metrics = new LinkedHashMap<ComponentData, LinkedHashMap<String, MetricData>>();
 
-    private boolean delivered = false;
+    private volatile boolean delivered = false;
+    private volatile boolean inFlight = false;
+    // number of metric slots, including empty slots kept for reuse
+    private int metricCount = 0;
+    // set when reset() kept empty slots, which are reclaimed before a metric limit is applied
+    private boolean hasEmptySlots = false;
+    private boolean budgetExceeded = false;
+    private boolean componentLimitExceeded = false;
 
     /**
      * Constructs a {@code Request} with a given {@link Context}.
@@ -51,7 +63,7 @@ public class Request {
 
     /**
      * Add metric to the {@code Request} for a given component.
-     * The {@link Number} value is converted to a {@code float}.
+     * The {@link Number} value is aggregated as a {@code double} and sent as a {@code float}.
      * The count is assumed to be 1, while minValue and maxValue are set to value.
      * Sum of squares is calculated as the value squared.
      * @param component the {@code ComponentData} the metric should be added to
@@ -69,7 +81,7 @@ public class Request {
 
     /**
      * Add metric to the {@code Request} for a given component.
-     * All {@link Number} values are converted to {@code floats}.
+     * All {@link Number} values are aggregated as {@code doubles} and sent as {@code floats}.
      * @param component the {@code ComponentData} the metric should be added to
      * @param name the name of the metric
      * @param count the number of things being measured
@@ -87,47 +99,158 @@ public class Request {
         return metricData;
     }
 
+    /**
+     * Add metric to the {@code Request} for a given component without boxing the value.
+     * The value is aggregated as a {@code double} and sent as a {@code float}.
+     * The count is assumed to be 1, while minValue and maxValue are set to value.
+     * Sum of squares is calculated as the value squared.
+     * @param component the {@code ComponentData} the metric should be added to
+     * @param name the name of the metric
+     * @param value the value for the metric
+     * @return MetricData the metric the value was added to
+     */
+    public MetricData addMetric(ComponentData component, String name, double value) {
+        return addMetric(component, name, 1, value, value, value, value * value);
+    }
+
+    /**
+     * Add metric to the {@code Request} for a given component without boxing the values.
+     * All values are aggregated as {@code doubles} and sent as {@code floats}.
+     * A metric that was already added is aggregated in place, so no objects are created once a metric name has been reported.
+     * @param component the {@code ComponentData} the metric should be added to
+     * @param name the name of the metric
+     * @param count the number of things being measured
+     * @param value the value for the metric
+     * @param minValue the minimum value for the metric
+     * @param maxValue the maximum value for the metric
+     * @param sumOfSquares the sum of squared values for the metric
+     * @return MetricData the metric the values were added to
+     */
+    public synchronized MetricData addMetric(ComponentData component, String name, int count, double value, double minValue, double maxValue, double sumOfSquares) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(component, " : ", name, " = ", value);
+        }
+        MetricData metric = findMetric(component, name);
+        if (metric != null) {
+            metric.aggregate(count, value, minValue, maxValue, sumOfSquares);
+        } else {
+            metric = putMetric(component, new MetricData(name, count, value, minValue, maxValue, sumOfSquares));
+        }
+        return metric;
+    }
+
+    /**
+     * Add the values recorded through a {@link MetricHandle} since the last harvest.
+     * The handle is reset, and keeps recording for the next {@code Request}.
+     * @param handle the {@code MetricHandle} to harvest
+     */
+    public void addMetric(MetricHandle handle) {
+        handle.harvest(this);
+    }
+
+    /**
+     * Add the percentiles of the values recorded in a {@link MetricHistogram} since the last harvest.
+     * The histogram is reset, and keeps recording for the next {@code Request}.
+     * @param histogram the {@code MetricHistogram} to harvest
+     */
+    public void addMetric(MetricHistogram histogram) {
+        histogram.harvest(this);
+    }
+
     /**
      * Deliver the {@code Request} to the New Relic metrics API.
+     * <p> A {@code Request} larger than the maximum payload size of its {@link Context} is sent in several POSTs.
+     * When some of them fail, the metrics that were delivered are removed, so that only the failed metrics are sent again,
+     * and only components that were delivered in full have their last successful report updated.
+     * The aggregation limit restarts only once the whole {@code Request} is delivered, so failed metrics are still dropped at the limit.
      */
     public void deliver() {
         // do not send an empty request
-        if (metrics.isEmpty()) {
+        if (isEmpty()) {
             logger.debug("No metrics were reported for this poll cycle");
+            return;
+        }
+
+        List<Map<ComponentData, List<MetricData>>> payloads = getPayloads(context.getMaxPayloadSize());
+        if (payloads.size() > 1) {
+            logger.debug("Sending metrics in ", payloads.size(), " payloads of at most ", context.getMaxPayloadSize(), " bytes");
+        }
+
+        List<Map<ComponentData, List<MetricData>>> deliveredPayloads = new ArrayList<Map<ComponentData, List<MetricData>>>();
+        Set<ComponentData> deliveredComponents = new HashSet<ComponentData>();
+        Set<ComponentData> failedComponents = new HashSet<ComponentData>();
+        for (Map<ComponentData, List<MetricData>> payload : payloads) {
+            if (post(payload)) {
+                deliveredPayloads.add(payload);
+                deliveredComponents.addAll(payload.keySet());
+            } else {
+                failedComponents.addAll(payload.keySet());
+            }
+        }
+        if (deliveredPayloads.isEmpty()) {
+            return;
+        }
+
+        Date deliveredAt = new Date();
+        if (failedComponents.isEmpty()) {
+            delivered = true;
+            context.setAggregationStartedAt(deliveredAt);
         } else {
-            HttpURLConnection connection = null;
+            // keep only what failed, so that it is all that is sent again, and is still dropped at the aggregation limit
+            removeMetrics(deliveredPayloads);
+        }
+        // update last successful timestamps of components that were delivered in full
+        deliveredComponents.removeAll(failedComponents);
+        for (ComponentData component : deliveredComponents) {
+            component.setLastSuccessfulReportedAt(deliveredAt);
+        }
+    }
+
+    /**
+     * POST a payload to the New Relic metrics API
+     * @param payload the metrics of each component in the payload
+     * @return boolean true if the payload was accepted
+     */
+    private boolean post(Map<ComponentData, List<MetricData>> payload) {
+        HttpURLConnection connection = null;
+        
+        try {
+            if (logger.isDebugEnabled()) {
+                ByteArrayOutputStream json = new ByteArrayOutputStream();
+                context.write(payload, new JsonWriter(json));
+                logger.debug("Sending JSON: ", json.toString(UTF_8));
+            }
+            
+            connection = context.createUrlConnectionForOutput();
+            OutputStream out = connection.getOutputStream();
+            if (context.isGzip()) {
+                // compressed as it is written, and finished when closed
+                out = new PooledGzipOutputStream(out, BufferPool.getShared());
+            }
             
             try {
-                Map<String, Object> data = serialize();
-                String json = JSONObject.toJSONString(data);
-                logger.debug("Sending JSON: ", json);
-                
-                connection = context.createUrlConnectionForOutput();
-                OutputStreamWriter out = new OutputStreamWriter(connection.getOutputStream());
-                
+                write(payload, out);
+            } finally {
+                out.close();
+            }
+            
+            // process and log response from the collector
+            return processResponse(connection);
+        }
+        catch (Exception ex) {
+            logger.error(ex, "An error occurred communicating with the New Relic service");
+
+            if (connection != null) {
                 try {
-                    out.write(json);
-                } finally {
-                    out.close();
+                    logger.info("Response: ", connection.getResponseCode(), " : ", connection.getResponseMessage());
+                 } catch (IOException e) {
+                    logger.debug(ex, ex.getMessage());
                 }
-                
-                // process and log response from the collector
-                processResponse(connection);
             }
-            catch (Exception ex) {
-                logger.error(ex, "An error occurred communicating with the New Relic service");
-    
-                if (connection != null) {
-                    try {
-                        logger.info("Response: ", connection.getResponseCode(), " : ", connection.getResponseMessage());
-                     } catch (IOException e) {
-                        logger.debug(ex, ex.getMessage());
-                    }
-                }
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
             }
         }
     }
@@ -139,13 +262,30 @@ public class Request {
     /* package */ boolean isDelivered() {
         return delivered;
     }
+
+    /**
+     * Is the request handed off to a {@link DeliveryQueue} and not yet returned
+     * @return boolean
+     */
+    /* package */ boolean isInFlight() {
+        return inFlight;
+    }
+
+    /* package */ void setInFlight(boolean inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    /* package */ Context getContext() {
+        return context;
+    }
     
     /**
      * Process response and log response as appropriate.
      * @param connection
+     * @return boolean true if the response is Ok
      * @throws IOException
      */
-    private void processResponse(HttpURLConnection connection) throws IOException {
+    private boolean processResponse(HttpURLConnection connection) throws IOException {
         int responseCode = connection.getResponseCode();
 
         // do not log 503 responses
@@ -167,17 +307,14 @@ public class Request {
             }
             else if (isResponseOk(responseCode, responseBody)) {
                 logger.debug("Server response: ", responseCode, ", ", responseBody);
-                delivered = true;
-                Date deliveredAt = new Date();
-                context.setAggregationStartedAt(deliveredAt);
-                // update last successful timestamps
-                updateComponentTimestamps(deliveredAt);
+                return true;
             }
             else {
                 // all other response codes will fail
                 logger.error("Failed server response: ", responseCode, ", ", responseBody);
             }
         }
+        return false;
     }
     
     /**
@@ -234,22 +371,46 @@ public class Request {
     private String getServerResponse(int responseCode, HttpURLConnection connection) throws IOException {
     
         InputStream input = getResponseStream(responseCode, connection);
-    
-        StringBuilder builder = new StringBuilder();
-        if (input != null) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(input));
-            try {
-                String inputLine;
-                while ((inputLine = in.readLine()) != null) {
-                    builder.append(inputLine);
+        if (input == null) {
+            return EMPTY_STRING;
+        }
+
+        // read into a pooled buffer, which keeps its size for the next response
+        BufferPool pool = BufferPool.getShared();
+        byte[] buffer = pool.acquire(BufferPool.BUFFER_SIZE);
+        try {
+            int length = 0;
+            int read;
+            while ((read = input.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    buffer = pool.grow(buffer);
                 }
-            } finally {
-                in.close();
             }
+            return removeLineBreaks(new String(buffer, 0, length, UTF_8));
+        } finally {
+            input.close();
+            pool.release(buffer);
         }
-        return builder.toString();
     }
     
+    /**
+     * Remove line breaks, which the response body was read without
+     */
+    private String removeLineBreaks(String body) {
+        if (body.indexOf('\n') < 0 && body.indexOf('\r') < 0) {
+            return body;
+        }
+        StringBuilder builder = new StringBuilder(body.length());
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c != '\n' && c != '\r') {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
     /**
      * Get an InputStream from the server response.
      * Valid responses have response codes less than 400 (bad request).
@@ -280,41 +441,331 @@ public class Request {
     }
     
     /**
-     * Update component timestamps for last successful reported.
+     * Split the metrics into payloads along component and metric boundaries.
+     * Whole components are packed into each payload while they fit, and a component that does not fit
+     * in a payload of its own is split across payloads between its metrics.
+     * Sizes are upper bounds, so a payload is never written larger than the limit unless it holds a single metric.
+     * @param maxPayloadSize the maximum size in bytes of a payload, or 0 for a single payload
+     * @return List the metrics of each component in each payload
      */
-    private void updateComponentTimestamps(Date deliveredAt) {
+    /* package */ synchronized List<Map<ComponentData, List<MetricData>>> getPayloads(int maxPayloadSize) {
+        List<Map<ComponentData, List<MetricData>>> payloads = new ArrayList<Map<ComponentData, List<MetricData>>>();
+        Map<ComponentData, List<MetricData>> payload = new LinkedHashMap<ComponentData, List<MetricData>>();
+        int envelopeSize = maxPayloadSize > 0 ? context.getMaxEnvelopeSize() : 0;
+        int payloadSize = envelopeSize;
+
         for (ComponentData component : metrics.keySet()) {
-            component.setLastSuccessfulReportedAt(deliveredAt);
+            List<MetricData> componentMetrics = getMetrics(component);
+            if (componentMetrics.isEmpty()) {
+                continue;
+            }
+            if (maxPayloadSize <= 0) {
+                payload.put(component, componentMetrics);
+                continue;
+            }
+
+            int componentSize = component.getMaxSize();
+            for (MetricData metric : componentMetrics) {
+                componentSize += metric.getMaxSize();
+            }
+            if (envelopeSize + componentSize <= maxPayloadSize) {
+                if (payloadSize + componentSize > maxPayloadSize) {
+                    payloads.add(payload);
+                    payload = new LinkedHashMap<ComponentData, List<MetricData>>();
+                    payloadSize = envelopeSize;
+                }
+                payload.put(component, componentMetrics);
+                payloadSize += componentSize;
+                continue;
+            }
+
+            // too large for a payload of its own, so it starts in the current payload if any of its metrics fit
+            if (!payload.isEmpty() && payloadSize + component.getMaxSize() + componentMetrics.get(0).getMaxSize() > maxPayloadSize) {
+                payloads.add(payload);
+                payload = new LinkedHashMap<ComponentData, List<MetricData>>();
+                payloadSize = envelopeSize;
+            }
+            List<MetricData> part = new ArrayList<MetricData>();
+            payloadSize += component.getMaxSize();
+            for (MetricData metric : componentMetrics) {
+                if (!part.isEmpty() && payloadSize + metric.getMaxSize() > maxPayloadSize) {
+                    payload.put(component, part);
+                    payloads.add(payload);
+                    payload = new LinkedHashMap<ComponentData, List<MetricData>>();
+                    part = new ArrayList<MetricData>();
+                    payloadSize = envelopeSize + component.getMaxSize();
+                }
+                part.add(metric);
+                payloadSize += metric.getMaxSize();
+            }
+            payload.put(component, part);
         }
+        if (!payload.isEmpty()) {
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    /**
+     * Remove the metrics of payloads, such as payloads that were delivered while others failed
+     * @param payloads the payloads
+     */
+    private synchronized void removeMetrics(List<Map<ComponentData, List<MetricData>>> payloads) {
+        for (Map<ComponentData, List<MetricData>> payload : payloads) {
+            for (Map.Entry<ComponentData, List<MetricData>> entry : payload.entrySet()) {
+                LinkedHashMap<String, MetricData> componentMetrics = metrics.get(entry.getKey());
+                if (componentMetrics == null) {
+                    continue;
+                }
+                for (MetricData metric : entry.getValue()) {
+                    if (componentMetrics.get(metric.name) == metric) {
+                        componentMetrics.remove(metric.name);
+                        metricCount--;
+                    }
+                }
+                if (componentMetrics.isEmpty()) {
+                    metrics.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Does the {@code Request} have no metrics to deliver
+     * @return boolean
+     */
+    /* package */ synchronized boolean isEmpty() {
+        for (LinkedHashMap<String, MetricData> componentMetrics : metrics.values()) {
+            if (hasMetrics(componentMetrics)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasMetrics(Map<String, MetricData> componentMetrics) {
+        for (MetricData metric : componentMetrics.values()) {
+            if (!metric.empty) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clear the {@code Request} in place, so that it can be reused for another harvest without reallocating its storage.
+     * Metrics are zeroed and kept, except those that were not reported since the last reset, so that memory stays
+     * bounded by the metrics reported in recent poll cycles.
+     */
+    public synchronized void reset() {
+        for (Iterator<LinkedHashMap<String, MetricData>> components = metrics.values().iterator(); components.hasNext();) {
+            LinkedHashMap<String, MetricData> componentMetrics = components.next();
+            for (Iterator<MetricData> iterator = componentMetrics.values().iterator(); iterator.hasNext();) {
+                MetricData metric = iterator.next();
+                if (metric.empty) {
+                    iterator.remove();
+                    metricCount--;
+                } else {
+                    metric.reset();
+                    hasEmptySlots = true;
+                }
+            }
+            if (componentMetrics.isEmpty()) {
+                components.remove();
+            }
+        }
+        delivered = false;
+        inFlight = false;
+        budgetExceeded = false;
+        componentLimitExceeded = false;
     }
     
     /* package */ Map<String, Object> serialize() {
         return context.serialize(this);
     }
 
-    /* package */ List<MetricData> getMetrics(ComponentData component) {
-        if( ! metrics.containsKey(component)) {
-            metrics.put(component, new LinkedList<MetricData>());
+    /**
+     * Write the {@code Request} as UTF-8 encoded JSON
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    /* package */ void write(OutputStream out) throws IOException {
+        List<Map<ComponentData, List<MetricData>>> payloads = getPayloads(0);
+        write(payloads.isEmpty() ? new LinkedHashMap<ComponentData, List<MetricData>>() : payloads.get(0), out);
+    }
+
+    private void write(Map<ComponentData, List<MetricData>> payload, OutputStream out) throws IOException {
+        BufferPool pool = BufferPool.getShared();
+        byte[] buffer = pool.acquire(BufferPool.BUFFER_SIZE);
+        try {
+            context.write(payload, new JsonWriter(out, buffer));
+        } finally {
+            pool.release(buffer);
         }
-        return metrics.get(component);
     }
 
-    private MetricData addMetric(ComponentData component, MetricData metric) {
+    /**
+     * Get the components that reported metrics, in the order they first reported
+     * @return List the components
+     */
+    /* package */ synchronized List<ComponentData> getComponents() {
+        return new ArrayList<ComponentData>(metrics.keySet());
+    }
+
+    /* package */ synchronized List<MetricData> getMetrics(ComponentData component) {
+        List<MetricData> reported = new ArrayList<MetricData>();
+        Map<String, MetricData> componentMetrics = metrics.get(component);
+        if (componentMetrics != null) {
+            for (MetricData metric : componentMetrics.values()) {
+                if (!metric.empty) {
+                    reported.add(metric);
+                }
+            }
+        }
+        return reported;
+    }
+
+    private synchronized MetricData addMetric(ComponentData component, MetricData metric) {
         logger.debug(component, " : ", metric);
-        List<MetricData> metrics = getMetrics(component);
-        if (metrics.contains(metric)) {
-            aggregate(metric, metrics);
-        } else {
-            metrics.add(metric);
+        MetricData existingMetric = findMetric(component, metric.name);
+        if (existingMetric != null) {
+            existingMetric.aggregrateWith(metric);
+            return metric;
+        }
+        return putMetric(component, metric);
+    }
+
+    private MetricData findMetric(ComponentData component, String name) {
+        LinkedHashMap<String, MetricData> componentMetrics = metrics.get(component);
+        return componentMetrics != null ? componentMetrics.get(name) : null;
+    }
+
+    /**
+     * Add a metric name that is new to the {@code Request}, within the metric limits of the {@link Context}.
+     * A component that already has as many metrics as its limit rolls the new metric into its overflow metric.
+     * Once the budget of the whole {@code Request} is used up, either the new metric or the oldest metric is dropped,
+     * depending on the {@link CardinalityPolicy}.
+     * @return MetricData the metric the values were added to, or null if they were dropped
+     */
+    private MetricData putMetric(ComponentData component, MetricData metric) {
+        if (isOverComponentLimit(component, metric.name)) {
+            return addOverflowMetric(component, metric);
+        }
+
+        int maxMetrics = context.getMaxMetrics();
+        if (maxMetrics > 0 && metricCount >= maxMetrics) {
+            removeEmptySlots();
         }
+        if (maxMetrics > 0 && metricCount >= maxMetrics) {
+            if (!budgetExceeded) {
+                budgetExceeded = true;
+                logger.warn("More than ", maxMetrics, " metric names were reported since the last delivery, ",
+                        context.getCardinalityPolicy() == CardinalityPolicy.DROP_OLDEST ? "dropping the oldest metrics" : "dropping new metrics");
+            }
+            context.countDroppedMetric();
+            if (context.getCardinalityPolicy() != CardinalityPolicy.DROP_OLDEST) {
+                return null;
+            }
+            removeOldestMetric();
+        }
+        metric.compensated = context.isCompensatedSummation();
+        getComponentMetrics(component).put(metric.name, metric);
+        metricCount++;
         return metric;
     }
 
-    private void aggregate(MetricData metric, List<MetricData> metrics) {
-        for (MetricData existingMetric : metrics) {
-            if (existingMetric.name.equals(metric.name)) {
-                existingMetric.aggregrateWith(metric);
-                break;
+    private boolean isOverComponentLimit(ComponentData component, String name) {
+        int maxComponentMetrics = context.getMaxComponentMetrics();
+        if (maxComponentMetrics <= 0 || name.equals(context.getOverflowMetricName())) {
+            return false;
+        }
+        LinkedHashMap<String, MetricData> componentMetrics = metrics.get(component);
+        if (componentMetrics != null && componentMetrics.size() >= maxComponentMetrics) {
+            removeEmptySlots();
+            componentMetrics = metrics.get(component);
+        }
+        return componentMetrics != null && componentMetrics.size() >= maxComponentMetrics;
+    }
+
+    /**
+     * Remove the slots that were kept for reuse by reset() and have not been reported to since,
+     * so that they do not count towards the metric limits
+     */
+    private void removeEmptySlots() {
+        if (!hasEmptySlots) {
+            return;
+        }
+        hasEmptySlots = false;
+        for (Iterator<LinkedHashMap<String, MetricData>> components = metrics.values().iterator(); components.hasNext();) {
+            LinkedHashMap<String, MetricData> componentMetrics = components.next();
+            for (Iterator<MetricData> iterator = componentMetrics.values().iterator(); iterator.hasNext();) {
+                if (iterator.next().empty) {
+                    iterator.remove();
+                    metricCount--;
+                }
+            }
+            if (componentMetrics.isEmpty()) {
+                components.remove();
+            }
+        }
+    }
+
+    private MetricData addOverflowMetric(ComponentData component, MetricData metric) {
+        if (!componentLimitExceeded) {
+            componentLimitExceeded = true;
+            logger.warn("Component '", component.name, "' reported more than ", context.getMaxComponentMetrics(),
+                    " metric names, adding metrics such as '", metric.name, "' to '", context.getOverflowMetricName(), "'");
+        }
+        context.countRejectedMetric();
+
+        MetricData overflowMetric = findMetric(component, context.getOverflowMetricName());
+        if (overflowMetric != null) {
+            overflowMetric.aggregrateWith(metric);
+            return overflowMetric;
+        }
+        return putMetric(component, new MetricData(context.getOverflowMetricName(), metric.count, metric.getTotal(),
+                metric.minValue, metric.maxValue, metric.getTotalSumOfSquares()));
+    }
+
+    private void removeOldestMetric() {
+        for (Iterator<LinkedHashMap<String, MetricData>> components = metrics.values().iterator(); components.hasNext();) {
+            LinkedHashMap<String, MetricData> componentMetrics = components.next();
+            Iterator<MetricData> iterator = componentMetrics.values().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                metricCount--;
+            }
+            if (componentMetrics.isEmpty()) {
+                components.remove();
+            }
+            if (metricCount < context.getMaxMetrics()) {
+                return;
+            }
+        }
+    }
+
+    private LinkedHashMap<String, MetricData> getComponentMetrics(ComponentData component) {
+        LinkedHashMap<String, MetricData> componentMetrics = metrics.get(component);
+        if (componentMetrics == null) {
+            componentMetrics = new LinkedHashMap<String, MetricData>();
+            metrics.put(component, componentMetrics);
+        }
+        return componentMetrics;
+    }
+
+    /**
+     * Aggregate all metrics of another {@code Request} into this {@code Request}.
+     * Metrics with the same name for the same component are aggregated with each other.
+     * @param other the {@code Request} to aggregate
+     */
+    public synchronized void aggregateWith(Request other) {
+        for (Map.Entry<ComponentData, LinkedHashMap<String, MetricData>> entry : other.metrics.entrySet()) {
+            for (MetricData metric : entry.getValue().values()) {
+                // copied rather than shared, since the other request may be reset and reused
+                if (!metric.empty) {
+                    addMetric(entry.getKey(), metric.name, metric.count, metric.getTotal(), metric.minValue, metric.maxValue, metric.getTotalSumOfSquares());
+                }
             }
         }
     }
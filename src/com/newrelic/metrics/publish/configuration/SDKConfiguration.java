@@ -26,11 +26,12 @@ public class SDKConfiguration {
     public SDKConfiguration() throws ConfigurationException {
 
         licenseKey = Config.getValue("license_key");
-        if (null == licenseKey) {
+        // license_key is optional when every agent reports to a tenant with its own license key
+        if (null == licenseKey && Config.getValue("tenants") == null) {
             throw new ConfigurationException("license_key is undefined");
         }
 
-        if (licenseKey.equals(DEFAULT_LICENSE_KEY)) {
+        if (DEFAULT_LICENSE_KEY.equals(licenseKey)) {
             throw new ConfigurationException("You forgot to update the New Relic license_key from '" + DEFAULT_LICENSE_KEY + "'. " +
             		"See https://docs.newrelic.com/docs/subscriptions/license-key for more information.");
         }
@@ -1,7 +1,13 @@
 package com.newrelic.metrics.publish.internal;
 
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import com.newrelic.metrics.publish.binding.ComponentData;
 import com.newrelic.metrics.publish.binding.Context;
+import com.newrelic.metrics.publish.binding.MetricHandle;
+import com.newrelic.metrics.publish.binding.MetricHistogram;
 import com.newrelic.metrics.publish.binding.Request;
 
 /**
@@ -10,11 +16,9 @@ import com.newrelic.metrics.publish.binding.Request;
  */
 public class DataCollector {
 
-    /* package */ static final String METRIC_PREFIX = "Component/";
-    private static final String LEFT_BRACKET = "[";
-    private static final String RIGHT_BRACKET = "]";
-    private static final int METRIC_STRING_BASE_LENGTH = 12; // METRIC_PREFIX length plus BRACKET lengths
-
+    private final MetricNameCache metricNames = new MetricNameCache(MetricNameCache.DEFAULT_MAX_SIZE);
+    private final List<MetricHandle> metricHandles = new CopyOnWriteArrayList<MetricHandle>();
+    private final List<MetricHistogram> metricHistograms = new CopyOnWriteArrayList<MetricHistogram>();
     private ComponentData componentData;
     private Request request;
 
@@ -52,6 +56,18 @@ public class DataCollector {
         }
     }
 
+    /**
+     * Remove the component from the {@link Context} when its {@link Agent} is removed.
+     */
+    public void removeComponent() {
+        if (componentData != null) {
+            context.removeComponent(componentData);
+            componentData = null;
+            metricHandles.clear();
+            metricHistograms.clear();
+        }
+    }
+
     /**
      * Set the {@link Request}
      * @param request
@@ -62,7 +78,7 @@ public class DataCollector {
 
     /**
      * Add metric data to the {@code DataCollector}.
-     * The {@link Number} value is converted to a {@code float}.
+     * The {@link Number} value is aggregated as a {@code double} and sent as a {@code float}.
      * The count is assumed to be 1, while minValue and maxValue are set to value.
      * Sum of squares is calculated as the value squared.
      * @param metricName the name of the metric to add
@@ -75,7 +91,7 @@ public class DataCollector {
 
     /**
      * Add metric data to the {@code DataCollector}.
-     * All {@link Number} data values are converted to {@code floats}.
+     * All {@link Number} data values are aggregated as {@code doubles} and sent as {@code floats}.
      * @param metricName the name of the metric to add
      * @param units the units of the metric
      * @param count the number of things being measured
@@ -88,14 +104,106 @@ public class DataCollector {
         request.addMetric(componentData, getMetricFullName(metricName, units), count, value, minValue, maxValue, sumOfSquares);
     }
 
+    /**
+     * Add metric data to the {@code DataCollector} without boxing the value.
+     * The value is aggregated as a {@code double} and sent as a {@code float}.
+     * The count is assumed to be 1, while minValue and maxValue are set to value.
+     * Sum of squares is calculated as the value squared.
+     * @param metricName the name of the metric to add
+     * @param units the units of the metric
+     * @param value the value of the metric
+     */
+    public void addData(String metricName, String units, double value) {
+        request.addMetric(componentData, getMetricFullName(metricName, units), value);
+    }
+
+    /**
+     * Add metric data to the {@code DataCollector} without boxing the values.
+     * All values are aggregated as {@code doubles} and sent as {@code floats}.
+     * @param metricName the name of the metric to add
+     * @param units the units of the metric
+     * @param count the number of things being measured
+     * @param value the value of the metric
+     * @param minValue the minimum value of the metric
+     * @param maxValue the maximum value of the metric
+     * @param sumOfSquares the sum of squared values of the metric
+     */
+    public void addData(String metricName, String units, int count, double value, double minValue, double maxValue, double sumOfSquares) {
+        request.addMetric(componentData, getMetricFullName(metricName, units), count, value, minValue, maxValue, sumOfSquares);
+    }
+
+    /**
+     * Create a {@link MetricHandle} for a metric of the component
+     * @param metricName the name of the metric
+     * @param units the units of the metric
+     * @return MetricHandle the handle to record the metric with
+     * @throws IllegalStateException if the component has not been created
+     */
+    public MetricHandle createMetricHandle(String metricName, String units) {
+        return createMetricHandle(metricName, units, 1);
+    }
+
+    /**
+     * Create a {@link MetricHandle} for a metric of the component that many threads can record at the same time
+     * @param metricName the name of the metric
+     * @param units the units of the metric
+     * @param concurrency the number of threads expected to record at the same time
+     * @return MetricHandle the handle to record the metric with
+     * @throws IllegalStateException if the component has not been created
+     */
+    public MetricHandle createMetricHandle(String metricName, String units, int concurrency) {
+        if (componentData == null) {
+            throw new IllegalStateException("Metrics can only be registered once the agent is set up");
+        }
+        MetricHandle handle = new MetricHandle(componentData, getMetricFullName(metricName, units), concurrency);
+        metricHandles.add(handle);
+        return handle;
+    }
+
+    /**
+     * Create a {@link MetricHistogram} for a metric of the component.
+     * Each percentile is reported as a metric named after the percentile, such as {@code metricName/p99}.
+     * @param metricName the name of the metric
+     * @param units the units of the metric
+     * @param percentiles the percentiles to report
+     * @return MetricHistogram the histogram to record the metric with
+     * @throws IllegalStateException if the component has not been created
+     */
+    public MetricHistogram createMetricHistogram(String metricName, String units, double... percentiles) {
+        if (componentData == null) {
+            throw new IllegalStateException("Metrics can only be registered once the agent is set up");
+        }
+        String[] names = new String[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            names[i] = getMetricFullName(metricName + "/p" + formatPercentile(percentiles[i]), units);
+        }
+        MetricHistogram histogram = new MetricHistogram(componentData, percentiles, names);
+        metricHistograms.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Move the values recorded through every {@link MetricHandle} and {@link MetricHistogram} since the last harvest
+     * into a {@link Request}
+     * @param request the {@link Request} to harvest into
+     */
+    public void harvestMetricHandles(Request request) {
+        for (MetricHandle handle : metricHandles) {
+            request.addMetric(handle);
+        }
+        for (MetricHistogram histogram : metricHistograms) {
+            request.addMetric(histogram);
+        }
+    }
+
+    /* package */ static String formatPercentile(double percentile) {
+        if (percentile == Math.rint(percentile)) {
+            return Long.toString((long) percentile);
+        }
+        return new BigDecimal(Double.toString(percentile)).stripTrailingZeros().toPlainString();
+    }
+
     /* package */ String getMetricFullName(String metricName, String units) {
-        // allocating exact size to reduce memory in array resizing in StringBuilder
-        return new StringBuilder(METRIC_STRING_BASE_LENGTH + metricName.length() + units.length())
-            .append(METRIC_PREFIX)
-            .append(metricName)
-            .append(LEFT_BRACKET)
-            .append(units)
-            .append(RIGHT_BRACKET)
-            .toString();
+        return metricNames.get(metricName, units);
     }
 }
@@ -0,0 +1,89 @@
+package com.newrelic.metrics.publish.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of full metric names, so that reporting the same metric every poll cycle does not build a new name.
+ * <p> Full names are interned, so every {@link com.newrelic.metrics.publish.binding.Request} shares one canonical instance.
+ * The least recently reported names are evicted once the cache is full, which bounds memory for agents whose
+ * metric names change over time.
+ */
+/* package */ class MetricNameCache {
+
+    /* package */ static final String METRIC_PREFIX = "Component/";
+    private static final String LEFT_BRACKET = "[";
+    private static final String RIGHT_BRACKET = "]";
+    private static final int METRIC_STRING_BASE_LENGTH = 12; // METRIC_PREFIX length plus BRACKET lengths
+
+    /* package */ static final int DEFAULT_MAX_SIZE = 32768;
+    private static final int MAX_UNITS_PER_NAME = 8;
+
+    private final LinkedHashMap<String, CachedName> names;
+
+    /**
+     * Constructs a {@code MetricNameCache}
+     * @param maxSize the maximum number of metric names to cache
+     */
+    /* package */ MetricNameCache(final int maxSize) {
+        // access order, so the least recently reported name is evicted first
+        names = new LinkedHashMap<String, CachedName>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedName> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the full name of a metric, such as {@code Component/Queries[queries/second]}
+     * @param metricName the name of the metric
+     * @param units the units of the metric
+     * @return String the interned full name
+     */
+    /* package */ synchronized String get(String metricName, String units) {
+        CachedName first = names.get(metricName);
+        int unitsCount = 0;
+        for (CachedName cached = first; cached != null; cached = cached.next) {
+            if (cached.units.equals(units)) {
+                return cached.fullName;
+            }
+            unitsCount++;
+        }
+
+        String fullName = buildFullName(metricName, units).intern();
+        // a metric name is rarely reported with more than one units, drop the others if it is reported with many
+        names.put(metricName, new CachedName(units, fullName, unitsCount < MAX_UNITS_PER_NAME ? first : null));
+        return fullName;
+    }
+
+    /* package */ synchronized int size() {
+        return names.size();
+    }
+
+    private static String buildFullName(String metricName, String units) {
+        // allocating exact size to reduce memory in array resizing in StringBuilder
+        return new StringBuilder(METRIC_STRING_BASE_LENGTH + metricName.length() + units.length())
+            .append(METRIC_PREFIX)
+            .append(metricName)
+            .append(LEFT_BRACKET)
+            .append(units)
+            .append(RIGHT_BRACKET)
+            .toString();
+    }
+
+    private static class CachedName {
+
+        private final String units;
+        private final String fullName;
+        private final CachedName next;
+
+        private CachedName(String units, String fullName, CachedName next) {
+            this.units = units;
+            this.fullName = fullName;
+            this.next = next;
+        }
+    }
+}
@@ -180,6 +180,16 @@ public final class Logger {
         FileAppender.start();
     }
     
+    /**
+     * Is the debug level enabled.
+     * Use it to avoid building log arguments on hot paths.
+     * 
+     * @return boolean
+     */
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+    
     /**
      * Log a message with a variable number of arguments at the debug level.
      * Only logs if the debug level is enabled.
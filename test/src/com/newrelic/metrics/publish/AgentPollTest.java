@@ -0,0 +1,106 @@
+package com.newrelic.metrics.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.newrelic.metrics.publish.binding.BindingFactory;
+import com.newrelic.metrics.publish.binding.Context;
+import com.newrelic.metrics.publish.binding.Request;
+
+public class AgentPollTest {
+
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLatePollIsHarvestedAfterItCompletes() throws Exception {
+        Context context = new Context();
+        SlowAgent agent = new SlowAgent();
+        agent.getCollector().setContext(context);
+        agent.getCollector().createComponent(agent.getGUID(), agent.getAgentName());
+
+        BlockingQueue<AgentPoll> completions = new LinkedBlockingQueue<AgentPoll>();
+        AgentPoll poll = new AgentPoll(agent, new Request(context));
+        poll.submit(executor, completions);
+
+        // the deadline passes while the agent is still polling
+        assertFalse(poll.await(10));
+        assertFalse(poll.isDone());
+        assertTrue(completions.isEmpty());
+
+        agent.release.countDown();
+        assertSame(poll, completions.poll(5000, TimeUnit.MILLISECONDS));
+        assertTrue(poll.await(0));
+
+        Request request = context.createRequest();
+        poll.harvest(request);
+        assertEquals(1, BindingFactory.getFirstComponentMetrics(request).size());
+    }
+
+    @Test
+    public void testFailedPollIsReportedAsCompleted() throws Exception {
+        Context context = new Context();
+        SlowAgent agent = new SlowAgent() {
+            @Override
+            public void pollCycle() {
+                throw new IllegalStateException("failed poll");
+            }
+        };
+        agent.getCollector().setContext(context);
+        agent.getCollector().createComponent(agent.getGUID(), agent.getAgentName());
+
+        BlockingQueue<AgentPoll> completions = new LinkedBlockingQueue<AgentPoll>();
+        AgentPoll poll = new AgentPoll(agent, new Request(context));
+        poll.submit(executor, completions);
+
+        assertSame(poll, completions.poll(5000, TimeUnit.MILLISECONDS));
+        try {
+            poll.await(0);
+            fail("Expected the failure of the poll cycle");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static class SlowAgent extends Agent {
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public SlowAgent() {
+            super("com.test.slow", "1.0.0");
+        }
+
+        @Override
+        public void pollCycle() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reportMetric("Slow", "value", 1);
+        }
+
+        @Override
+        public String getAgentName() {
+            return "SlowAgent";
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.newrelic.metrics.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.newrelic.metrics.publish.binding.BindingFactory;
+import com.newrelic.metrics.publish.binding.Context;
+import com.newrelic.metrics.publish.binding.Request;
+
+public class AgentSamplerTest {
+
+    @Test
+    public void testSamplesAreAggregatedUntilHarvest() throws Exception {
+        Context context = new Context();
+        SampledAgent agent = new SampledAgent();
+        agent.getCollector().setContext(context);
+        agent.getCollector().createComponent(agent.getGUID(), agent.getAgentName());
+
+        AgentSampler sampler = new AgentSampler(agent, context, new PollOverruns());
+        sampler.run();
+        sampler.run();
+        sampler.run();
+
+        Request request = context.createRequest();
+        sampler.harvest(request);
+
+        assertEquals(Arrays.<Number>asList(6.0f, 3, 1.0f, 3.0f, 14.0f), BindingFactory.getFirstComponentMetrics(request).get("Component/Sample[value]"));
+
+        // samples taken after the harvest belong to the next harvest
+        sampler.run();
+        Request nextRequest = new Request(context);
+        sampler.harvest(nextRequest);
+
+        assertEquals(Arrays.<Number>asList(6.0f, 3, 1.0f, 3.0f, 14.0f), BindingFactory.getFirstComponentMetrics(request).get("Component/Sample[value]"));
+        assertEquals(Arrays.<Number>asList(4.0f, 1, 4.0f, 4.0f, 16.0f), BindingFactory.getFirstComponentMetrics(nextRequest).get("Component/Sample[value]"));
+    }
+
+    @Test
+    public void testHarvestDoesNotWaitForSampleInProgress() throws Exception {
+        Context context = new Context();
+        final BlockingAgent agent = new BlockingAgent();
+        agent.getCollector().setContext(context);
+        agent.getCollector().createComponent(agent.getGUID(), agent.getAgentName());
+
+        final AgentSampler sampler = new AgentSampler(agent, context, new PollOverruns());
+        sampler.run();
+        Thread sampling = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sampler.run();
+            }
+        });
+        agent.blocking = true;
+        sampling.start();
+        assertTrue(agent.started.await(5, TimeUnit.SECONDS));
+
+        // harvested while the second sample is blocked
+        Request request = context.createRequest();
+        sampler.harvest(request);
+        assertEquals(Arrays.<Number>asList(1.0f, 1, 1.0f, 1.0f, 1.0f), BindingFactory.getFirstComponentMetrics(request).get("Component/Sample[value]"));
+
+        // the blocked sample completes into the next harvest
+        agent.release.countDown();
+        sampling.join(5000);
+        Request nextRequest = new Request(context);
+        sampler.harvest(nextRequest);
+        assertEquals(Arrays.<Number>asList(2.0f, 1, 2.0f, 2.0f, 4.0f), BindingFactory.getFirstComponentMetrics(nextRequest).get("Component/Sample[value]"));
+    }
+
+    @Test
+    public void testLateSamplesAreSkipped() {
+        Context context = new Context();
+        SampledAgent agent = new SampledAgent();
+        AgentSampler sampler = new AgentSampler(agent, context, new PollOverruns());
+
+        assertFalse(sampler.isLate(10000));
+        assertFalse(sampler.isLate(11000));
+        assertFalse(sampler.isLate(12400));
+        // a sample that overran by more than half an interval
+        assertTrue(sampler.isLate(13600));
+        assertFalse(sampler.isLate(14000));
+    }
+
+    @Test
+    public void testSampledAgentsAreNotPolledOnTicks() {
+        SampledAgent agent = new SampledAgent();
+        PollSchedule schedule = new PollSchedule(60, Arrays.<Agent>asList(agent));
+
+        assertEquals(0, schedule.getDueAgents(Arrays.<Agent>asList(agent), 0).size());
+    }
+
+    private static class BlockingAgent extends SampledAgent {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean blocking = false;
+
+        @Override
+        public void pollCycle() {
+            if (blocking) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.pollCycle();
+        }
+    }
+
+    private static class SampledAgent extends Agent {
+
+        private int samples = 0;
+
+        public SampledAgent() {
+            super("com.test.sampled", "1.2.3");
+            setSampleIntervalInMillis(1000);
+        }
+
+        @Override
+        public void pollCycle() {
+            reportMetric("Sample", "value", ++samples);
+        }
+
+        @Override
+        public String getAgentName() {
+            return "SampledAgent";
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.newrelic.metrics.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PollOverrunsTest {
+
+    @Test
+    public void testOverrunsAreCountedPerAgent() {
+        PollOverruns overruns = new PollOverruns();
+        assertTrue(overruns.getCounts().isEmpty());
+
+        assertEquals(1, overruns.increment(new NamedAgent("slow")));
+        assertEquals(2, overruns.increment(new NamedAgent("slow")));
+        assertEquals(1, overruns.increment(new NamedAgent("fast")));
+
+        Map<String, Long> counts = overruns.getCounts();
+        assertEquals(2, counts.size());
+        assertEquals(Long.valueOf(2), counts.get("slow"));
+        assertEquals(Long.valueOf(1), counts.get("fast"));
+    }
+
+    private static class NamedAgent extends Agent {
+
+        private final String name;
+
+        public NamedAgent(String name) {
+            super("com.test.named", "1.0.0");
+            this.name = name;
+        }
+
+        @Override
+        public void pollCycle() {
+        }
+
+        @Override
+        public String getAgentName() {
+            return name;
+        }
+    }
+}
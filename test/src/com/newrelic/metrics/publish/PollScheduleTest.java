@@ -0,0 +1,103 @@
+package com.newrelic.metrics.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PollScheduleTest {
+
+    @Test
+    public void testDefaultTickInterval() {
+        PollSchedule schedule = new PollSchedule(60, Arrays.<Agent>asList(new IntervalAgent(0)));
+
+        assertEquals(60, schedule.getTickInterval());
+        assertEquals(60, schedule.getPollInterval(new IntervalAgent(0)));
+    }
+
+    @Test
+    public void testTickIntervalIsGreatestCommonDivisor() {
+        PollSchedule schedule = new PollSchedule(60, Arrays.<Agent>asList(new IntervalAgent(10), new IntervalAgent(300), new IntervalAgent(45)));
+
+        assertEquals(5, schedule.getTickInterval());
+    }
+
+    @Test
+    public void testDueAgents() {
+        Agent fast = new IntervalAgent(10);
+        Agent slow = new IntervalAgent(300);
+        Agent normal = new IntervalAgent(0);
+        List<Agent> agents = Arrays.asList(fast, slow, normal);
+        PollSchedule schedule = new PollSchedule(60, agents);
+
+        // all agents are polled on start
+        assertEquals(agents, schedule.getDueAgents(agents, 0));
+        assertEquals(Collections.singletonList(fast), schedule.getDueAgents(agents, 1));
+        assertEquals(Arrays.asList(fast, normal), schedule.getDueAgents(agents, 6));
+        assertEquals(agents, schedule.getDueAgents(agents, 30));
+    }
+
+    @Test
+    public void testHarvestDue() {
+        PollSchedule schedule = new PollSchedule(60, Arrays.<Agent>asList(new IntervalAgent(10)));
+
+        assertTrue(schedule.isHarvestDue(0));
+        assertFalse(schedule.isHarvestDue(1));
+        assertFalse(schedule.isHarvestDue(5));
+        assertTrue(schedule.isHarvestDue(6));
+    }
+
+    @Test
+    public void testDueAfterSkippedTicks() {
+        Agent fast = new IntervalAgent(10);
+        Agent slow = new IntervalAgent(300);
+        List<Agent> agents = Arrays.<Agent>asList(fast, slow);
+        PollSchedule schedule = new PollSchedule(60, agents);
+
+        assertEquals(agents, schedule.getDueAgents(agents, -1, 0));
+        assertTrue(schedule.isHarvestDue(-1, 0));
+        // ticks 29 to 31 were skipped, the slow agent and the harvest were due on tick 30
+        assertEquals(agents, schedule.getDueAgents(agents, 28, 32));
+        assertTrue(schedule.isHarvestDue(28, 32));
+        assertEquals(Collections.singletonList(fast), schedule.getDueAgents(agents, 32, 33));
+        assertFalse(schedule.isHarvestDue(32, 33));
+        assertFalse(schedule.isHarvestDue(30, 35));
+    }
+
+    @Test
+    public void testFitPollIntervalOfAgentAddedLater() {
+        PollSchedule schedule = new PollSchedule(60, Arrays.<Agent>asList(new IntervalAgent(10)));
+
+        assertEquals(30, schedule.fitPollInterval(new IntervalAgent(30)));
+        assertEquals(20, schedule.fitPollInterval(new IntervalAgent(24)));
+        assertEquals(10, schedule.fitPollInterval(new IntervalAgent(3)));
+        assertEquals(60, schedule.fitPollInterval(new IntervalAgent(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativePollInterval() {
+        new IntervalAgent(-1);
+    }
+
+    private static class IntervalAgent extends Agent {
+
+        public IntervalAgent(int pollInterval) {
+            super("com.test.interval", "1.2.3");
+            setPollInterval(pollInterval);
+        }
+
+        @Override
+        public void pollCycle() {
+        }
+
+        @Override
+        public String getAgentName() {
+            return "IntervalAgent";
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.newrelic.metrics.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+
+public class RunnerTest {
+
+    @Test
+    public void testSequentialPollingHasNoPollExecutor() {
+        assertNull(Runner.createPollExecutor(false, 1, Executors.defaultThreadFactory()));
+    }
+
+    @Test
+    public void testParallelPollingUsesFixedPool() {
+        ExecutorService executor = Runner.createPollExecutor(false, 4, Executors.defaultThreadFactory());
+        try {
+            assertTrue(executor instanceof ThreadPoolExecutor);
+            assertEquals(4, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadsFallBackToFixedPool() {
+        ExecutorService virtualThreads = Runner.newVirtualThreadPerTaskExecutor();
+        ExecutorService executor = Runner.createPollExecutor(true, 3, Executors.defaultThreadFactory());
+        try {
+            assertNotNull(executor);
+            if (virtualThreads == null) {
+                // JVMs without virtual threads poll on a fixed pool, even when the pool size is 1
+                assertTrue(executor instanceof ThreadPoolExecutor);
+                assertEquals(3, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+                assertEquals(1, ((ThreadPoolExecutor) Runner.createPollExecutor(true, 1, Executors.defaultThreadFactory())).getMaximumPoolSize());
+            } else {
+                assertFalse(executor instanceof ThreadPoolExecutor);
+            }
+        } finally {
+            executor.shutdownNow();
+            if (virtualThreads != null) {
+                virtualThreads.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void testEmbeddedThreadsAreDaemonThreads() {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        ThreadFactory embedded = Runner.createThreadFactory("New Relic Poll", true);
+        Thread first = embedded.newThread(runnable);
+        assertTrue(first.isDaemon());
+        assertEquals("New Relic Poll 1", first.getName());
+        assertEquals("New Relic Poll 2", embedded.newThread(runnable).getName());
+
+        assertFalse(Runner.createThreadFactory("New Relic Poll", false).newThread(runnable).isDaemon());
+    }
+}
@@ -0,0 +1,75 @@
+package com.newrelic.metrics.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SchedulingPolicyTest {
+
+    private static final long NOW = 16666666L * 60000; // aligned to a minute
+
+    @Test
+    public void testStartsImmediatelyWithoutOffset() {
+        SchedulingPolicy policy = new SchedulingPolicy(60, 60, null, NOW + 1234);
+
+        assertEquals(0, policy.getInitialDelay(NOW + 1234));
+        assertEquals(NOW + 1234 + 60000, policy.getTickAt(1));
+    }
+
+    @Test
+    public void testStartsAtOffset() {
+        SchedulingPolicy policy = new SchedulingPolicy(60, 60, 15000L, NOW + 20000);
+
+        // next 15 seconds past the minute
+        assertEquals(55000, policy.getInitialDelay(NOW + 20000));
+        assertEquals(NOW + 75000, policy.getTickAt(0));
+    }
+
+    @Test
+    public void testStartsImmediatelyAtOffset() {
+        SchedulingPolicy policy = new SchedulingPolicy(10, 60, 15000L, NOW + 15000);
+
+        assertEquals(0, policy.getInitialDelay(NOW + 15000));
+        assertEquals(NOW + 25000, policy.getTickAt(1));
+    }
+
+    @Test
+    public void testDelayCompensatesForDrift() {
+        SchedulingPolicy policy = new SchedulingPolicy(60, 60, null, NOW);
+
+        // tick 0 ran for 3 seconds, tick 1 is still at one interval from the start
+        assertEquals(1, policy.getNextTick(0, NOW + 3000));
+        assertEquals(57000, policy.getDelay(1, NOW + 3000));
+
+        // scheduler woke up early
+        assertEquals(2, policy.getNextTick(1, NOW + 59990));
+        assertEquals(60000, policy.getDelay(2, NOW + 60000));
+    }
+
+    @Test
+    public void testMissedTicksAreSkipped() {
+        SchedulingPolicy policy = new SchedulingPolicy(10, 60, null, NOW);
+
+        // tick 0 ran for 35 seconds, ticks 1 and 2 are skipped and tick 3 runs late
+        assertEquals(3, policy.getNextTick(0, NOW + 35000));
+        assertEquals(0, policy.getDelay(3, NOW + 35000));
+    }
+
+    @Test
+    public void testDelayIsBoundedWhenClockMovesBackwards() {
+        SchedulingPolicy policy = new SchedulingPolicy(60, 60, null, NOW);
+
+        assertEquals(60000, policy.getDelay(1, NOW - 3600000));
+    }
+
+    @Test
+    public void testJitterOffset() {
+        long offset = SchedulingPolicy.getJitterOffset("host1com.test.guid", 60);
+
+        assertEquals(offset, SchedulingPolicy.getJitterOffset("host1com.test.guid", 60));
+        assertNotEquals(offset, SchedulingPolicy.getJitterOffset("host2com.test.guid", 60));
+        assertTrue(offset >= 0 && offset < 60000);
+    }
+}
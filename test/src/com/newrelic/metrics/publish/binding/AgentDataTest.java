@@ -1,6 +1,7 @@
 package com.newrelic.metrics.publish.binding;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.util.HashMap;
 
@@ -28,4 +29,20 @@ public class AgentDataTest {
         
         assertEquals(expected, data);
     }
+
+    @Test
+    public void testFragmentIsEncodedOnceUntilChanged() throws Exception {
+        
+        AgentData agent = new AgentData();
+        agent.host = "test agent";
+        agent.version = "1.0.0";
+        agent.pid = 10;
+        
+        byte[] fragment = agent.getFragment();
+        assertEquals("{\"host\":\"test agent\",\"version\":\"1.0.0\",\"pid\":10}", new String(fragment, "UTF-8"));
+        assertSame(fragment, agent.getFragment());
+        
+        agent.pid = 11;
+        assertEquals("{\"host\":\"test agent\",\"version\":\"1.0.0\",\"pid\":11}", new String(agent.getFragment(), "UTF-8"));
+    }
 }
@@ -8,6 +8,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class BindingFactory {
 
@@ -46,6 +49,12 @@ public class BindingFactory {
         return context.createRequest();
     }
     
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> getFirstComponentMetrics(Request request) {
+        List<HashMap<String, Object>> components = (List<HashMap<String, Object>>) request.serialize().get("components");
+        return (Map<String, Object>) components.get(0).get("metrics");
+    }
+    
     public static class MockContext extends Context {
         
         private final int responseCode;
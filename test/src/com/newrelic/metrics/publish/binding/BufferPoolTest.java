@@ -0,0 +1,67 @@
+package com.newrelic.metrics.publish.binding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        BufferPool pool = new BufferPool();
+        byte[] buffer = pool.acquire(100);
+        assertEquals(BufferPool.BUFFER_SIZE, buffer.length);
+
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(100));
+        // too small for the request
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire(BufferPool.BUFFER_SIZE + 1));
+    }
+
+    @Test
+    public void testGrownBufferKeepsContentsAndSize() {
+        BufferPool pool = new BufferPool();
+        byte[] buffer = pool.acquire(BufferPool.BUFFER_SIZE);
+        buffer[BufferPool.BUFFER_SIZE - 1] = 42;
+
+        byte[] grown = pool.grow(buffer);
+        assertEquals(2 * BufferPool.BUFFER_SIZE, grown.length);
+        assertEquals(42, grown[BufferPool.BUFFER_SIZE - 1]);
+
+        // the grown buffer is handed out again once released
+        pool.release(grown);
+        assertSame(grown, pool.acquire(2 * BufferPool.BUFFER_SIZE));
+    }
+
+    @Test
+    public void testFullPoolDropsSmallestBuffer() {
+        BufferPool pool = new BufferPool();
+        byte[] large = new byte[4 * BufferPool.BUFFER_SIZE];
+        for (int i = 0; i < 4; i++) {
+            pool.release(new byte[BufferPool.BUFFER_SIZE]);
+        }
+        pool.release(large);
+
+        assertEquals(4, pool.getPooledBufferCount());
+        assertSame(large, pool.acquire(4 * BufferPool.BUFFER_SIZE));
+    }
+
+    @Test
+    public void testReleasedDeflaterIsReset() {
+        BufferPool pool = new BufferPool();
+        Deflater deflater = pool.acquireDeflater();
+        deflater.setInput(new byte[] { 1, 2, 3 });
+        deflater.finish();
+        deflater.deflate(new byte[64]);
+
+        pool.releaseDeflater(deflater);
+        Deflater reused = pool.acquireDeflater();
+        assertSame(deflater, reused);
+        assertEquals(0, reused.getBytesRead());
+    }
+}
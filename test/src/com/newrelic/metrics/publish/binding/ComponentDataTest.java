@@ -1,6 +1,7 @@
 package com.newrelic.metrics.publish.binding;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.util.Arrays;
 import java.util.Date;
@@ -157,4 +158,18 @@ public class ComponentDataTest {
 
         assertEquals(expected, data);
     }
+
+    @Test
+    public void testFragmentIsEncodedOnceUntilChanged() throws Exception {
+        
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        byte[] fragment = component.getFragment();
+        assertEquals("\"name\":\"test component name\",\"guid\":\"com.test.guid\"", new String(fragment, "UTF-8"));
+        assertSame(fragment, component.getFragment());
+        
+        component.name = "renamed component";
+        assertEquals("\"name\":\"renamed component\",\"guid\":\"com.test.guid\"", new String(component.getFragment(), "UTF-8"));
+    }
 }
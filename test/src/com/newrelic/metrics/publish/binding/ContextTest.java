@@ -9,6 +9,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
@@ -44,6 +46,25 @@ public class ContextTest {
         assertEquals("test component name", itrComponent.name);
     }
     
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRemoveComponent() {
+        
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "test metric", 17.0f);
+        
+        context.removeComponent(component);
+        assertFalse(context.getComponents().hasNext());
+        
+        // metrics reported before the component was removed are still delivered
+        List<Map<String, Object>> components = (List<Map<String, Object>>) request.serialize().get("components");
+        assertEquals(1, components.size());
+        assertEquals("com.test.guid", components.get(0).get("guid"));
+    }
+    
     @Test
     public void testCreateRequest() {
         
@@ -53,6 +74,25 @@ public class ContextTest {
         assertNotNull(request);
     }
     
+    @Test
+    public void testDeliveredRequestIsResetWhenReusingRequests() {
+        
+        Context context = BindingFactory.createContext();
+        context.internalSetReuseRequests(true);
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "test metric", 1.0f);
+        request.deliver();
+        assertTrue(request.isDelivered());
+        
+        Request next = context.createRequest();
+        
+        assertSame(request, next);
+        assertFalse(next.isDelivered());
+        assertTrue(next.isEmpty());
+    }
+    
     @Test
     public void testFailedRequestIsReused() {
         
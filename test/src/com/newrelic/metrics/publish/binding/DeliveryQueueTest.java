@@ -0,0 +1,132 @@
+package com.newrelic.metrics.publish.binding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DeliveryQueueTest {
+
+    @Test
+    public void testDelivered() throws InterruptedException {
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+
+        Request request = context.createRequest();
+        request.addMetric(component, "test metric", 17.0f);
+
+        DeliveryQueue queue = new DeliveryQueue(1);
+        assertTrue(queue.offer(request));
+        assertTrue(queue.shutdown(5, TimeUnit.SECONDS));
+
+        assertTrue(request.isDelivered());
+        assertFalse(request.isInFlight());
+        assertNotSame(request, context.createRequest());
+    }
+
+    @Test
+    public void testUndeliveredRequestIsReused() throws InterruptedException {
+        Context context = BindingFactory.createContextWithUnavailableResponse();
+        ComponentData component = BindingFactory.createComponent(context);
+
+        Request request = context.createRequest();
+        request.addMetric(component, "test metric", 17.0f);
+
+        DeliveryQueue queue = new DeliveryQueue(1);
+        assertTrue(queue.offer(request));
+        assertTrue(queue.shutdown(5, TimeUnit.SECONDS));
+
+        assertFalse(request.isDelivered());
+        assertSame(request, context.createRequest());
+    }
+
+    @Test
+    public void testInFlightRequestIsNotReused() {
+        Context context = BindingFactory.createContextWithUnavailableResponse();
+
+        Request request = context.createRequest();
+        context.setInFlight(request, true);
+
+        assertNotSame(request, context.createRequest());
+    }
+
+    @Test
+    public void testUndeliveredRequestIsAggregatedIntoNextRequest() {
+        Context context = BindingFactory.createContextWithUnavailableResponse();
+        ComponentData component = BindingFactory.createComponent(context);
+
+        Request request = context.createRequest();
+        request.addMetric(component, "test metric", 2.0f);
+        context.setInFlight(request, true);
+
+        Request nextRequest = context.createRequest();
+        nextRequest.addMetric(component, "test metric", 4.0f);
+
+        request.deliver();
+        context.aggregateUndelivered(request);
+
+        List<MetricData> metrics = nextRequest.getMetrics(component);
+        assertEquals(1, metrics.size());
+        assertEquals(2, metrics.get(0).count);
+        assertEquals(6.0f, metrics.get(0).value, 0.00001);
+        assertSame(nextRequest, context.createRequest());
+    }
+
+    @Test
+    public void testRejectedRequestIsReused() throws InterruptedException {
+        Context context = BindingFactory.createContext();
+        DeliveryQueue queue = new DeliveryQueue(1);
+        queue.shutdown(5, TimeUnit.SECONDS);
+
+        Request request = context.createRequest();
+        assertFalse(queue.offer(request));
+        assertFalse(request.isInFlight());
+        assertSame(request, context.createRequest());
+    }
+
+    @Test
+    public void testHandedOffRequestIsNotAddedTo() {
+        Context context = BindingFactory.createContextWithUnavailableResponse();
+        ComponentData component = BindingFactory.createComponent(context);
+
+        Request request = context.createRequest();
+        request.addMetric(component, "test metric", 2.0f);
+        DeliveryQueue.handOff(request);
+
+        Request nextRequest = context.createRequest();
+        assertNotSame(request, nextRequest);
+        nextRequest.addMetric(component, "test metric", 4.0f);
+
+        DeliveryQueue.deliverHandedOff(request);
+
+        assertFalse(request.isInFlight());
+        List<MetricData> metrics = nextRequest.getMetrics(component);
+        assertEquals(1, metrics.size());
+        assertEquals(2, metrics.get(0).count);
+        assertEquals(6.0f, metrics.get(0).value, 0.00001);
+    }
+
+    @Test
+    public void testRejectedRequestIsAggregatedIntoNextRequest() throws InterruptedException {
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        DeliveryQueue queue = new DeliveryQueue(1);
+        queue.shutdown(5, TimeUnit.SECONDS);
+
+        Request request = context.createRequest();
+        request.addMetric(component, "test metric", 2.0f);
+        DeliveryQueue.handOff(request);
+        Request nextRequest = context.createRequest();
+
+        assertFalse(queue.offer(request));
+        assertFalse(request.isInFlight());
+        assertEquals(1, nextRequest.getMetrics(component).size());
+        assertSame(nextRequest, context.createRequest());
+    }
+}
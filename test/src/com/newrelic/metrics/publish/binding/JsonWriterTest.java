@@ -0,0 +1,80 @@
+package com.newrelic.metrics.publish.binding;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+    @Test
+    public void testWriteRequest() throws IOException {
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        ComponentData emptyComponent = BindingFactory.createComponent(context);
+        emptyComponent.name = "empty component";
+
+        Request request = context.createRequest();
+        request.addMetric(component, "test metric", 17.0f);
+        request.addMetric(component, "Component/Other[ms]", 2, 3.5, 1.0, 2.5, 7.25);
+        request.addMetric(emptyComponent, "reset metric", 1.0);
+        request.reset();
+        request.addMetric(component, "test metric", 17.0f);
+        request.addMetric(component, "Component/Other[ms]", 2, 3.5, 1.0, 2.5, 7.25);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.write(out);
+
+        assertEquals("{\"agent\":{\"host\":\"test host\",\"version\":\"1.2.3\",\"pid\":5},\"components\":["
+                + "{\"name\":\"test component name\",\"guid\":\"com.test.guid\",\"duration\":60,\"metrics\":{"
+                + "\"test metric\":[17.0,1,17.0,17.0,289.0],\"Component/Other[ms]\":[3.5,2,1.0,2.5,7.25]}}]}",
+                out.toString("UTF-8"));
+        // the same content as the serialized tree
+        assertEquals(JSONValue.parse(JSONObject.toJSONString(request.serialize())), JSONValue.parse(out.toString("UTF-8")));
+    }
+
+    @Test
+    public void testWriteEscapesAndEncodesStrings() throws IOException {
+        String value = "quote \" backslash \\ tab \t nul \u0000 caf\u00e9 \u20ac \ud83d\ude00";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginArray().value(value).value(-42).value(Long.MIN_VALUE).value((String) null).endArray();
+        writer.flush();
+
+        String json = out.toString("UTF-8");
+        assertEquals("[\"quote \\\" backslash \\\\ tab \\t nul \\u0000 caf\u00e9 \u20ac \ud83d\ude00\",-42,-9223372036854775808,null]", json);
+        assertEquals(value, ((List<?>) JSONValue.parse(json)).get(0));
+    }
+
+    @Test
+    public void testWriteLargerThanBuffer() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            value.append("Component/\u00e9");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        writer.value(value.toString());
+        writer.flush();
+
+        assertEquals(value.toString(), JSONValue.parse(out.toString("UTF-8")));
+    }
+
+    @Test
+    public void testWriteRawFragments() throws IOException {
+        byte[] large = new byte[20000];
+        Arrays.fill(large, (byte) '1');
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out, new byte[16]);
+        writer.beginArray().raw("\"fragment\"".getBytes("UTF-8")).raw(large).value(2).endArray();
+        writer.flush();
+
+        assertEquals("[\"fragment\"," + new String(large, "UTF-8") + ",2]", out.toString("UTF-8"));
+    }
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertFalse;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -104,4 +105,60 @@ public class MetricDataTest {
         assertEquals(0.0f, nanMetric.minValue, 0.0001);
         assertEquals(0.0f, nanMetric.sumOfSquares, 0.0001);
     }
+    
+    @Test
+    public void testAggregateConvertsValues() {
+        MetricData metric = new MetricData("test metric", 10.0f);
+        metric.aggregate(2, Float.NaN, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, 4.0f);
+        
+        assertEquals(3, metric.count);
+        assertEquals(10.0f, metric.value, 0.0001);
+        assertEquals(Float.MIN_VALUE, metric.minValue, 0.0001);
+        assertEquals(Float.MAX_VALUE, metric.maxValue, 0.0001);
+        assertEquals(104.0f, metric.sumOfSquares, 0.0001);
+    }
+    
+    @Test
+    public void testAggregateKeepsDoublePrecision() {
+        MetricData metric = new MetricData("test metric", 16777216.0f);
+        for (int i = 0; i < 1000; i++) {
+            metric.aggregate(1, 1.0, 1.0, 1.0, 1.0);
+        }
+        
+        assertEquals(1001, metric.count);
+        assertEquals(16778216.0, metric.value, 0.0);
+        
+        HashMap<String, Object> data = new HashMap<String, Object>();
+        metric.serialize(data);
+        assertEquals(Float.valueOf(16778216.0f), ((List<?>) data.get("test metric")).get(0));
+    }
+    
+    @Test
+    public void testSerializeNarrowsOverflowToFloatMaxValue() {
+        MetricData metric = new MetricData("test metric", 3.0e38f);
+        metric.aggregate(1, 3.0e38, 3.0e38, 3.0e38, 9.0e76);
+        
+        HashMap<String, Object> data = new HashMap<String, Object>();
+        metric.serialize(data);
+        assertEquals(Arrays.<Number>asList(Float.MAX_VALUE, 2, 3.0e38f, 3.0e38f, Float.MAX_VALUE), data.get("test metric"));
+    }
+    
+    @Test
+    public void testCompensatedSummation() {
+        MetricData plain = new MetricData("test metric", 1.0e16);
+        MetricData compensated = new MetricData("test metric", 1.0e16);
+        compensated.compensated = true;
+        for (int i = 0; i < 1000; i++) {
+            plain.aggregate(1, 1.0, 1.0, 1.0, 1.0);
+            compensated.aggregate(1, 1.0, 1.0, 1.0, 1.0);
+        }
+        
+        assertEquals(1.0e16, plain.getTotal(), 0.0);
+        assertEquals(1.0e16 + 1000, compensated.getTotal(), 0.0);
+        
+        compensated.reset();
+        compensated.aggregate(1, 2.0, 2.0, 2.0, 4.0);
+        assertEquals(2.0, compensated.getTotal(), 0.0);
+        assertEquals(4.0, compensated.getTotalSumOfSquares(), 0.0);
+    }
 }
@@ -0,0 +1,125 @@
+package com.newrelic.metrics.publish.binding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class MetricHandleTest {
+
+    @Test
+    public void testRecordAndHarvest() {
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        MetricHandle handle = new MetricHandle(component, "test metric");
+
+        handle.record(7.0);
+        handle.record(3.0);
+        handle.record(2, 5.0, 1.0, 4.0, 17.0);
+
+        Request request = context.createRequest();
+        request.addMetric(handle);
+
+        List<MetricData> metrics = request.getMetrics(component);
+        assertEquals(1, metrics.size());
+        assertEquals("test metric", metrics.get(0).name);
+        assertEquals(4, metrics.get(0).count);
+        assertEquals(15.0f, metrics.get(0).value, 0.00001);
+        assertEquals(1.0f, metrics.get(0).minValue, 0.00001);
+        assertEquals(7.0f, metrics.get(0).maxValue, 0.00001);
+        assertEquals(75.0f, metrics.get(0).sumOfSquares, 0.00001);
+    }
+
+    @Test
+    public void testHandleIsValidAcrossRequests() {
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        MetricHandle handle = new MetricHandle(component, "test metric");
+
+        handle.record(7.0);
+        Request first = new Request(context);
+        first.addMetric(handle);
+
+        // nothing recorded since the last harvest
+        Request empty = new Request(context);
+        empty.addMetric(handle);
+        assertTrue(empty.getMetrics(component).isEmpty());
+
+        handle.record(-2.0);
+        Request second = new Request(context);
+        second.addMetric(handle);
+
+        List<MetricData> metrics = second.getMetrics(component);
+        assertEquals(1, metrics.get(0).count);
+        assertEquals(-2.0f, metrics.get(0).value, 0.00001);
+        assertEquals(-2.0f, metrics.get(0).minValue, 0.00001);
+        assertEquals(-2.0f, metrics.get(0).maxValue, 0.00001);
+        assertEquals(7.0f, first.getMetrics(component).get(0).value, 0.00001);
+    }
+
+    @Test
+    public void testStripeCountIsPowerOfTwo() {
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+
+        assertEquals(1, new MetricHandle(component, "test metric").getStripeCount());
+        assertEquals(8, new MetricHandle(component, "test metric", 6).getStripeCount());
+        assertEquals(64, new MetricHandle(component, "test metric", 1000).getStripeCount());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        final MetricHandle handle = new MetricHandle(component, "test metric", 4);
+        final int threadCount = 8;
+        final int recordsPerThread = 10000;
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final double value = i + 1;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < recordsPerThread; j++) {
+                        handle.record(value);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        // harvest while threads are recording, every record must land in exactly one request
+        Request first = new Request(context);
+        start.countDown();
+        first.addMetric(handle);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Request second = new Request(context);
+        second.addMetric(handle);
+
+        int count = 0;
+        double total = 0;
+        double maxValue = 0;
+        for (Request request : new Request[] { first, second }) {
+            for (MetricData metric : request.getMetrics(component)) {
+                count += metric.count;
+                total += metric.value;
+                maxValue = Math.max(maxValue, metric.maxValue);
+            }
+        }
+        assertEquals(threadCount * recordsPerThread, count);
+        assertEquals(36.0 * recordsPerThread, total, 0.0);
+        assertEquals(8.0, maxValue, 0.0);
+    }
+}
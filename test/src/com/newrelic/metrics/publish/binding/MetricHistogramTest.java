@@ -0,0 +1,75 @@
+package com.newrelic.metrics.publish.binding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class MetricHistogramTest {
+
+    @Test
+    public void testBucketsAreWithinPrecision() {
+        for (double value = 0.001; value < 1.0e12; value *= 1.37) {
+            double upperBound = MetricHistogram.getUpperBound(MetricHistogram.getBucket(value));
+            assertTrue(value + " <= " + upperBound, value <= upperBound);
+            assertTrue(value + " ~ " + upperBound, upperBound <= value * (1 + 1.0 / 64));
+        }
+        assertEquals(0.0, MetricHistogram.getUpperBound(MetricHistogram.getBucket(0.0)), 0.0);
+        assertEquals(0.0, MetricHistogram.getUpperBound(MetricHistogram.getBucket(0.0001)), 0.0);
+    }
+
+    @Test
+    public void testHarvestPercentiles() {
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        MetricHistogram histogram = new MetricHistogram(component, new double[] { 50, 99, 100 },
+                new String[] { "test/p50", "test/p99", "test/p100" });
+
+        for (int i = 1000; i >= 1; i--) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+        histogram.record(Double.NaN);
+
+        Request request = new Request(context);
+        request.addMetric(histogram);
+
+        List<MetricData> metrics = request.getMetrics(component);
+        assertEquals(3, metrics.size());
+        assertEquals("test/p50", metrics.get(0).name);
+        assertEquals(1, metrics.get(0).count);
+        assertEquals(500.0, metrics.get(0).value, 500.0 / 64);
+        assertEquals("test/p99", metrics.get(1).name);
+        assertEquals(990.0, metrics.get(1).value, 990.0 / 64);
+        assertEquals("test/p100", metrics.get(2).name);
+        assertEquals(1000.0, metrics.get(2).value, 1000.0 / 64);
+    }
+
+    @Test
+    public void testHarvestResetsHistogram() {
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        MetricHistogram histogram = new MetricHistogram(component, new double[] { 99 }, new String[] { "test/p99" });
+
+        histogram.record(100);
+        Request first = new Request(context);
+        first.addMetric(histogram);
+
+        Request empty = new Request(context);
+        empty.addMetric(histogram);
+        assertTrue(empty.getMetrics(component).isEmpty());
+
+        histogram.record(2);
+        Request second = new Request(context);
+        second.addMetric(histogram);
+        assertEquals(2.0, second.getMetrics(component).get(0).value, 2.0 / 64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileOutOfRange() {
+        Context context = BindingFactory.createContext();
+        new MetricHistogram(BindingFactory.createComponent(context), new double[] { 101 }, new String[] { "test/p101" });
+    }
+}
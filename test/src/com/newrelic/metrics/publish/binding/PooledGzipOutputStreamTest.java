@@ -0,0 +1,52 @@
+package com.newrelic.metrics.publish.binding;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class PooledGzipOutputStreamTest {
+
+    @Test
+    public void testCompressedStreamIsGzip() throws IOException {
+        BufferPool pool = new BufferPool();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append("Component/Repetitive/Metric/").append(i).append("[units]");
+        }
+
+        // the second stream reuses the deflater and buffer of the first
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            PooledGzipOutputStream out = new PooledGzipOutputStream(compressed, pool);
+            out.write(text.toString().getBytes("UTF-8"));
+            out.close();
+
+            assertEquals(text.toString(), decompress(compressed.toByteArray()));
+            assertEquals(1, pool.getPooledBufferCount());
+        }
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new PooledGzipOutputStream(compressed, new BufferPool()).close();
+
+        assertEquals("", decompress(compressed.toByteArray()));
+    }
+
+    private static String decompress(byte[] compressed) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,49 @@
+package com.newrelic.metrics.publish.binding;
+
+/**
+ * Measures the cost of adding a metric to a {@link Request} as the number of metric names per component grows.
+ * The cost per add should stay flat. Run with {@code java com.newrelic.metrics.publish.binding.RequestBenchmark}.
+ */
+public class RequestBenchmark {
+
+    private static final int[] METRIC_COUNTS = { 1000, 5000, 20000, 50000 };
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        // warm up
+        for (int i = 0; i < 3; i++) {
+            measure(METRIC_COUNTS[METRIC_COUNTS.length - 1]);
+        }
+
+        for (int metricCount : METRIC_COUNTS) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                best = Math.min(best, measure(metricCount));
+            }
+            System.out.println(String.format("%6d metrics: %6.1f ns per add", metricCount, (double) best / (2 * metricCount)));
+        }
+    }
+
+    /**
+     * Report every metric name twice, as two poll cycles aggregated into one harvest do
+     * @return long the elapsed time in nanoseconds
+     */
+    private static long measure(int metricCount) {
+        String[] names = new String[metricCount];
+        for (int i = 0; i < metricCount; i++) {
+            names[i] = "Component/Benchmark/Metric " + i + "[value]";
+        }
+
+        Context context = new Context();
+        ComponentData component = context.createComponent();
+        Request request = new Request(context);
+
+        long start = System.nanoTime();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < metricCount; i++) {
+                request.addMetric(component, names[i], i);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
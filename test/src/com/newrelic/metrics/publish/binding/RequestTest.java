@@ -1,11 +1,23 @@
 package com.newrelic.metrics.publish.binding;
 
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -125,6 +137,112 @@ public class RequestTest {
         assertEquals(2000.0f, metrics.get(0).sumOfSquares, 0.00001);
     }
     
+    @Test
+    public void testConcurrentAddMetric() throws InterruptedException {
+        
+        Context context = BindingFactory.createContext();
+        final Request request = context.createRequest();
+        
+        List<Thread> threads = new LinkedList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            final ComponentData component = BindingFactory.createComponent(context);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        request.addMetric(component, "test metric", 1.0f);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        
+        Iterator<ComponentData> components = context.getComponents();
+        for (Thread thread : threads) {
+            thread.join();
+            List<MetricData> metrics = request.getMetrics(components.next());
+            assertEquals(1, metrics.size());
+            assertEquals(1000, metrics.get(0).count);
+        }
+    }
+    
+    @Test
+    public void testAddPrimitiveMetricAggregatesInPlace() {
+        
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        MetricData metric = request.addMetric(component, "test metric", 7.0);
+        assertSame(metric, request.addMetric(component, "test metric", 3L));
+        assertSame(metric, request.addMetric(component, "test metric", 2, 5.0f, 1.0f, 4.0f, 17.0f));
+        
+        List<MetricData> metrics = request.getMetrics(component);
+        
+        assertEquals(1, metrics.size());
+        assertEquals(4, metrics.get(0).count);
+        assertEquals(15.0f, metrics.get(0).value, 0.00001);
+        assertEquals(1.0f, metrics.get(0).minValue, 0.00001);
+        assertEquals(7.0f, metrics.get(0).maxValue, 0.00001);
+        assertEquals(75.0f, metrics.get(0).sumOfSquares, 0.00001);
+    }
+    
+    @Test
+    public void testResetReusesMetrics() {
+        
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        MetricData metric = request.addMetric(component, "test metric", 7.0);
+        request.addMetric(component, "stale metric", 1.0);
+        
+        request.reset();
+        assertTrue(request.isEmpty());
+        assertTrue(request.getMetrics(component).isEmpty());
+        
+        // the slot is reused, and the metric not reported since the last reset is evicted
+        assertSame(metric, request.addMetric(component, "test metric", 3.0));
+        request.reset();
+        request.addMetric(component, "test metric", 2.0);
+        
+        List<MetricData> metrics = request.getMetrics(component);
+        assertEquals(1, metrics.size());
+        assertSame(metric, metrics.get(0));
+        assertEquals(1, metric.count);
+        assertEquals(2.0f, metric.value, 0.00001);
+        assertEquals(2.0f, metric.minValue, 0.00001);
+        assertEquals(2.0f, metric.maxValue, 0.00001);
+        assertEquals(4.0f, metric.sumOfSquares, 0.00001);
+        
+        request.reset();
+        request.reset();
+        assertTrue(request.getComponents().isEmpty());
+    }
+    
+    @Test
+    public void testAggregateManyMetricsKeepsOrder() {
+        
+        Context context = BindingFactory.createContext();
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 5000; i++) {
+                request.addMetric(component, "test metric " + i, i);
+            }
+        }
+        
+        List<MetricData> metrics = request.getMetrics(component);
+        
+        assertEquals(5000, metrics.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("test metric " + i, metrics.get(i).name);
+            assertEquals(2, metrics.get(i).count);
+        }
+    }
+    
     @Test
     public void testSerialize() {
         
@@ -191,4 +309,320 @@ public class RequestTest {
         
         assertFalse(request.isDelivered());
     }
+
+    @Test
+    public void testMetricBudgetDropsNewMetrics() {
+        
+        Context context = BindingFactory.createContext();
+        context.internalSetMetricBudget(2, CardinalityPolicy.DROP_NEW);
+        ComponentData component = BindingFactory.createComponent(context);
+        ComponentData otherComponent = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "first metric", 1.0);
+        request.addMetric(otherComponent, "second metric", 2.0);
+        assertEquals(null, request.addMetric(component, "third metric", 3.0));
+        assertEquals(null, request.addMetric(component, "fourth metric", 4.0f));
+        // metrics that are kept still aggregate
+        request.addMetric(component, "first metric", 5.0);
+        
+        List<MetricData> metrics = request.getMetrics(component);
+        assertEquals(1, metrics.size());
+        assertEquals("first metric", metrics.get(0).name);
+        assertEquals(2, metrics.get(0).count);
+        assertEquals(1, request.getMetrics(otherComponent).size());
+        assertEquals(2, context.getDroppedMetricCount());
+    }
+    
+    @Test
+    public void testMetricBudgetDropsOldestMetrics() {
+        
+        Context context = BindingFactory.createContext();
+        context.internalSetMetricBudget(2, CardinalityPolicy.DROP_OLDEST);
+        ComponentData component = BindingFactory.createComponent(context);
+        ComponentData otherComponent = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "first metric", 1.0);
+        request.addMetric(otherComponent, "second metric", 2.0);
+        request.addMetric(otherComponent, "third metric", 3.0);
+        
+        assertTrue(request.getMetrics(component).isEmpty());
+        assertEquals(Arrays.asList(otherComponent), request.getComponents());
+        List<MetricData> metrics = request.getMetrics(otherComponent);
+        assertEquals(2, metrics.size());
+        assertEquals("second metric", metrics.get(0).name);
+        assertEquals("third metric", metrics.get(1).name);
+        assertEquals(1, context.getDroppedMetricCount());
+    }
+    
+    @Test
+    public void testMetricBudgetIsFreedByReset() {
+        
+        Context context = BindingFactory.createContext();
+        context.internalSetMetricBudget(1, CardinalityPolicy.DROP_NEW);
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "first metric", 1.0);
+        request.reset();
+        request.reset();
+        
+        // the slot of the first metric was evicted, so the second metric fits
+        request.addMetric(component, "second metric", 2.0);
+        assertEquals(1, request.getMetrics(component).size());
+        assertEquals(0, context.getDroppedMetricCount());
+    }
+    
+    @Test
+    public void testMetricBudgetReclaimsEmptySlots() {
+        
+        Context context = BindingFactory.createContext();
+        context.internalSetMetricBudget(2, CardinalityPolicy.DROP_NEW);
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "first metric", 1.0);
+        request.addMetric(component, "second metric", 2.0);
+        request.reset();
+        
+        // the empty slots kept by reset make room for metrics with new names
+        request.addMetric(component, "third metric", 3.0);
+        request.addMetric(component, "fourth metric", 4.0);
+        List<MetricData> metrics = request.getMetrics(component);
+        assertEquals(2, metrics.size());
+        assertEquals("third metric", metrics.get(0).name);
+        assertEquals("fourth metric", metrics.get(1).name);
+        assertEquals(0, context.getDroppedMetricCount());
+    }
+    
+    @Test
+    public void testMetricBudgetDropsOldestReportedMetrics() {
+        
+        Context context = BindingFactory.createContext();
+        context.internalSetMetricBudget(2, CardinalityPolicy.DROP_OLDEST);
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "first metric", 1.0);
+        request.addMetric(component, "second metric", 2.0);
+        request.reset();
+        request.addMetric(component, "second metric", 2.0);
+        request.addMetric(component, "third metric", 3.0);
+        
+        // the empty slot of the first metric is reclaimed rather than the reported second metric
+        List<MetricData> metrics = request.getMetrics(component);
+        assertEquals(2, metrics.size());
+        assertEquals("second metric", metrics.get(0).name);
+        assertEquals("third metric", metrics.get(1).name);
+        assertEquals(0, context.getDroppedMetricCount());
+    }
+    
+    @Test
+    public void testCardinalityPolicyFromName() {
+        assertEquals(CardinalityPolicy.DROP_NEW, CardinalityPolicy.fromName("drop_new"));
+        assertEquals(CardinalityPolicy.DROP_OLDEST, CardinalityPolicy.fromName(" Drop_Oldest "));
+    }
+
+    @Test
+    public void testComponentMetricLimitRollsIntoOverflowMetric() {
+        
+        Context context = BindingFactory.createContext();
+        context.internalSetComponentMetricLimit(2, "Component/Overflow[value]");
+        ComponentData component = BindingFactory.createComponent(context);
+        ComponentData otherComponent = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "first metric", 1.0);
+        request.addMetric(component, "second metric", 2.0);
+        MetricData overflow = request.addMetric(component, "third metric", 3.0);
+        assertEquals("Component/Overflow[value]", overflow.name);
+        request.addMetric(component, "fourth metric", 2, 10.0f, 4.0f, 6.0f, 52.0f);
+        // metrics under the limit, and other components, are unaffected
+        request.addMetric(component, "first metric", 5.0);
+        request.addMetric(otherComponent, "third metric", 3.0);
+        
+        List<MetricData> metrics = request.getMetrics(component);
+        assertEquals(3, metrics.size());
+        assertEquals(2, metrics.get(0).count);
+        assertSame(overflow, metrics.get(2));
+        assertEquals(3, overflow.count);
+        assertEquals(13.0, overflow.value, 0.00001);
+        assertEquals(3.0, overflow.minValue, 0.00001);
+        assertEquals(6.0, overflow.maxValue, 0.00001);
+        assertEquals(61.0, overflow.sumOfSquares, 0.00001);
+        assertEquals(1, request.getMetrics(otherComponent).size());
+        assertEquals(2, context.getRejectedMetricCount());
+    }
+    
+    @Test
+    public void testComponentMetricLimitReclaimsEmptySlots() {
+        
+        Context context = BindingFactory.createContext();
+        context.internalSetComponentMetricLimit(2, null);
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "first metric", 1.0);
+        request.addMetric(component, "second metric", 2.0);
+        request.reset();
+        
+        // the empty slots kept by reset do not count towards the limit
+        request.addMetric(component, "third metric", 3.0);
+        request.addMetric(component, "fourth metric", 4.0);
+        List<MetricData> metrics = request.getMetrics(component);
+        assertEquals(2, metrics.size());
+        assertEquals("third metric", metrics.get(0).name);
+        assertEquals("fourth metric", metrics.get(1).name);
+        assertEquals(0, context.getRejectedMetricCount());
+    }
+    
+    @Test
+    public void testAggregateWithRespectsComponentMetricLimit() {
+        
+        Context context = BindingFactory.createContext();
+        context.internalSetComponentMetricLimit(1, null);
+        ComponentData component = BindingFactory.createComponent(context);
+        
+        Request other = new Request(context);
+        other.addMetric(component, "first metric", 1.0);
+        other.addMetric(component, "second metric", 2.0);
+        
+        Request request = context.createRequest();
+        request.addMetric(component, "third metric", 3.0);
+        request.aggregateWith(other);
+        
+        List<MetricData> metrics = request.getMetrics(component);
+        assertEquals(2, metrics.size());
+        assertEquals("third metric", metrics.get(0).name);
+        assertEquals("Component/MetricOverflow[value]", metrics.get(1).name);
+        assertEquals(2, metrics.get(1).count);
+    }
+
+    @Test
+    public void testGetPayloadsSplitsAlongComponents() throws IOException {
+        
+        Context context = BindingFactory.createContext();
+        Request request = context.createRequest();
+        List<ComponentData> components = new ArrayList<ComponentData>();
+        for (int i = 0; i < 5; i++) {
+            ComponentData component = BindingFactory.createComponent(context);
+            component.guid = "com.test.guid." + i;
+            components.add(component);
+            for (int j = 0; j < 10; j++) {
+                request.addMetric(component, "Component/Metric/" + j + "[units]", i * j);
+            }
+        }
+        int componentSize = components.get(0).getMaxSize() + 10 * request.getMetrics(components.get(0)).get(0).getMaxSize();
+        int maxPayloadSize = context.getMaxEnvelopeSize() + 2 * componentSize;
+        
+        List<Map<ComponentData, List<MetricData>>> payloads = request.getPayloads(maxPayloadSize);
+        
+        assertEquals(3, payloads.size());
+        assertEquals(Arrays.asList(components.get(0), components.get(1)), new ArrayList<ComponentData>(payloads.get(0).keySet()));
+        assertEquals(Arrays.asList(components.get(4)), new ArrayList<ComponentData>(payloads.get(2).keySet()));
+        for (Map<ComponentData, List<MetricData>> payload : payloads) {
+            assertTrue(getPayloadSize(context, payload) <= maxPayloadSize);
+        }
+        assertEquals(1, request.getPayloads(0).size());
+        assertEquals(5, request.getPayloads(0).get(0).size());
+    }
+    
+    @Test
+    public void testGetPayloadsSplitsLargeComponentAlongMetrics() throws IOException {
+        
+        Context context = BindingFactory.createContext();
+        ComponentData smallComponent = BindingFactory.createComponent(context);
+        ComponentData largeComponent = BindingFactory.createComponent(context);
+        Request request = context.createRequest();
+        request.addMetric(smallComponent, "Component/Small[units]", 1);
+        for (int i = 0; i < 100; i++) {
+            request.addMetric(largeComponent, "Component/Large/" + i + "[units]", i);
+        }
+        int metricSize = request.getMetrics(largeComponent).get(0).getMaxSize();
+        int maxPayloadSize = context.getMaxEnvelopeSize() + largeComponent.getMaxSize() + 30 * metricSize;
+        
+        List<Map<ComponentData, List<MetricData>>> payloads = request.getPayloads(maxPayloadSize);
+        
+        // the small component shares the first payload with the start of the large one
+        assertTrue(payloads.size() >= 4);
+        assertEquals(Arrays.asList(smallComponent, largeComponent), new ArrayList<ComponentData>(payloads.get(0).keySet()));
+        int metricCount = 0;
+        for (Map<ComponentData, List<MetricData>> payload : payloads) {
+            assertTrue(getPayloadSize(context, payload) <= maxPayloadSize);
+            metricCount += payload.get(largeComponent).size();
+        }
+        assertEquals(100, metricCount);
+        List<MetricData> lastPart = payloads.get(payloads.size() - 1).get(largeComponent);
+        assertEquals("Component/Large/99[units]", lastPart.get(lastPart.size() - 1).name);
+    }
+    
+    @Test
+    public void testDeliverResendsOnlyFailedPayloads() {
+        
+        // the second POST fails
+        FailingContext context = new FailingContext(2);
+        ComponentData firstComponent = BindingFactory.createComponent(context);
+        ComponentData secondComponent = BindingFactory.createComponent(context);
+        Request request = context.createRequest();
+        request.addMetric(firstComponent, "first metric", 1.0);
+        request.addMetric(secondComponent, "second metric", 2.0);
+        context.internalSetMaxPayloadSize(context.getMaxEnvelopeSize() + firstComponent.getMaxSize()
+                + request.getMetrics(firstComponent).get(0).getMaxSize());
+        Date aggregationStartedAt = new Date(System.currentTimeMillis() - 60000);
+        context.setAggregationStartedAt(aggregationStartedAt);
+        
+        request.deliver();
+        
+        assertEquals(2, context.posts);
+        assertFalse(request.isDelivered());
+        // the failed remainder keeps aggregating towards the aggregation limit
+        assertSame(aggregationStartedAt, context.getAggregationStartedAt());
+        assertTrue(request.getMetrics(firstComponent).isEmpty());
+        assertEquals(1, request.getMetrics(secondComponent).size());
+        // only the component that was delivered has a new timestamp
+        Request next = new Request(context);
+        next.addMetric(firstComponent, "first metric", 1.0);
+        next.addMetric(secondComponent, "second metric", 2.0);
+        assertTrue((Integer) firstComponent.serialize(next).get("duration") <= 1);
+        assertEquals(60, secondComponent.serialize(next).get("duration"));
+        
+        // the retry only sends the failed payload
+        assertSame(request, context.createRequest());
+        request.deliver();
+        assertEquals(3, context.posts);
+        assertTrue(request.isDelivered());
+        assertNotSame(aggregationStartedAt, context.getAggregationStartedAt());
+    }
+    
+    private static int getPayloadSize(Context context, Map<ComponentData, List<MetricData>> payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        context.write(payload, new JsonWriter(out));
+        return out.size();
+    }
+    
+    private static class FailingContext extends Context {
+        
+        private final int failingPost;
+        private int posts = 0;
+        
+        FailingContext(int failingPost) {
+            this.failingPost = failingPost;
+            agentData.host = "test host";
+            agentData.version = "1.2.3";
+        }
+        
+        @Override
+        /* package */ HttpURLConnection createUrlConnectionForOutput() throws IOException {
+            int responseCode = ++posts == failingPost ? HttpURLConnection.HTTP_BAD_REQUEST : HttpURLConnection.HTTP_OK;
+            String responseBody = responseCode == HttpURLConnection.HTTP_OK ? "{\"status\":\"ok\"}" : "{\"status\":\"error\"}";
+            HttpURLConnection connection = createNiceMock(HttpURLConnection.class);
+            expect(connection.getOutputStream()).andReturn(new ByteArrayOutputStream());
+            expect(connection.getResponseCode()).andReturn(responseCode);
+            expect(connection.getInputStream()).andReturn(new ByteArrayInputStream(responseBody.getBytes()));
+            expect(connection.getErrorStream()).andReturn(new ByteArrayInputStream(responseBody.getBytes()));
+            replay(connection);
+            return connection;
+        }
+    }
 }
@@ -1,12 +1,29 @@
 package com.newrelic.metrics.publish.binding;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
+import org.json.simple.JSONValue;
 import org.junit.Test;
 
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 public class SendRequestTest {
 
     @Test
@@ -24,6 +41,98 @@ public class SendRequestTest {
         assertNotNull(lastSuccessfulReportedAt);
     }
     
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSendGzipToStubEndpoint() throws Exception {
+        Headers[] headers = new Headers[1];
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpServer server = startStubEndpoint(headers, body);
+
+        try {
+            Context context = new Context();
+            context.internalSetServiceURI("http://localhost:" + server.getAddress().getPort() + "/platform/v1/metrics");
+            context.internalSetGzip(true);
+            context.agentData.host = "test host";
+            context.agentData.version = "1.2.3";
+            ComponentData component = BindingFactory.createComponent(context);
+
+            Request request = context.createRequest();
+            for (int i = 0; i < 100; i++) {
+                request.addMetric(component, "Component/Repetitive/Metric/Name/" + i + "[units]", i);
+            }
+            request.deliver();
+
+            assertTrue(request.isDelivered());
+            assertEquals("gzip", headers[0].getFirst("Content-Encoding"));
+            // sent with a content length by default
+            assertEquals(String.valueOf(body.size()), headers[0].getFirst("Content-Length"));
+            assertNull(headers[0].getFirst("Transfer-Encoding"));
+
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            copy(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())), json);
+            assertTrue(body.size() * 5 < json.size());
+
+            Map<String, Object> payload = (Map<String, Object>) JSONValue.parse(json.toString("UTF-8"));
+            List<Map<String, Object>> components = (List<Map<String, Object>>) payload.get("components");
+            assertEquals("com.test.guid", components.get(0).get("guid"));
+            assertEquals(100, ((Map<String, Object>) components.get(0).get("metrics")).size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testSendChunkedToStubEndpoint() throws Exception {
+        Headers[] headers = new Headers[1];
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpServer server = startStubEndpoint(headers, body);
+
+        try {
+            Context context = new Context();
+            context.internalSetServiceURI("http://localhost:" + server.getAddress().getPort() + "/platform/v1/metrics");
+            context.internalSetChunkedStreaming(true);
+            context.agentData.host = "test host";
+            context.agentData.version = "1.2.3";
+            ComponentData component = BindingFactory.createComponent(context);
+
+            Request request = context.createRequest();
+            request.addMetric(component, "test metric", 17.0f);
+            request.deliver();
+
+            assertTrue(request.isDelivered());
+            assertEquals("chunked", headers[0].getFirst("Transfer-Encoding"));
+            assertNull(headers[0].getFirst("Content-Length"));
+            assertNotNull(JSONValue.parse(body.toString("UTF-8")));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static HttpServer startStubEndpoint(final Headers[] headers, final ByteArrayOutputStream body) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                headers[0] = exchange.getRequestHeaders();
+                copy(exchange.getRequestBody(), body);
+                byte[] response = "{\"status\":\"ok\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static void copy(InputStream in, ByteArrayOutputStream out) throws IOException {
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
     private Date getLastSuccessfulReportedAt(ComponentData component) throws Exception {
         Field lastSuccessfulReportedAt = component.getClass().getDeclaredField("lastSuccessfulReportedAt");
         lastSuccessfulReportedAt.setAccessible(true);
@@ -108,4 +108,29 @@ public class SDKConfigurationTest {
         
         SDKConfiguration sdkConfig = new SDKConfiguration();
     }
+    
+    @Test(expected = ConfigurationException.class)
+    public void testMissingLicenseKeyThrowsAnException() throws ConfigurationException {
+        Map<String, Object> config = new HashMap<String, Object>();
+        
+        Config.init(config);
+        
+        SDKConfiguration sdkConfig = new SDKConfiguration();
+    }
+    
+    @Test
+    public void testLicenseKeyIsOptionalWithTenants() throws ConfigurationException {
+        Map<String, Object> tenant = new HashMap<String, Object>();
+        tenant.put("license_key", "tenant_license_key");
+        Map<String, Object> tenants = new HashMap<String, Object>();
+        tenants.put("team_a", tenant);
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put("tenants", tenants);
+        
+        Config.init(config);
+        
+        SDKConfiguration sdkConfig = new SDKConfiguration();
+        
+        assertNull(sdkConfig.getLicenseKey());
+    }
 }
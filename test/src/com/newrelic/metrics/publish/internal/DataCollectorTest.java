@@ -14,4 +14,11 @@ public class DataCollectorTest {
         assertEquals("Component/DB/Queries[queries/second]", collector.getMetricFullName("DB/Queries", "queries/second"));
         assertEquals("Component/Network/Bytes[count]", collector.getMetricFullName("Network/Bytes", "count"));
     }
+
+    @Test
+    public void testFormatPercentile() {
+        assertEquals("99", DataCollector.formatPercentile(99));
+        assertEquals("99.9", DataCollector.formatPercentile(99.9));
+        assertEquals("99.99", DataCollector.formatPercentile(99.99));
+    }
 }
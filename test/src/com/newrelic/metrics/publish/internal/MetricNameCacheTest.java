@@ -0,0 +1,44 @@
+package com.newrelic.metrics.publish.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class MetricNameCacheTest {
+
+    @Test
+    public void testFullNamesAreCanonical() {
+        MetricNameCache cache = new MetricNameCache(10);
+
+        String fullName = cache.get("Queries", "queries/second");
+        assertEquals("Component/Queries[queries/second]", fullName);
+        assertSame(fullName, cache.get("Queries", "queries/second"));
+        assertSame(fullName, new MetricNameCache(10).get("Queries", "queries/second"));
+    }
+
+    @Test
+    public void testNameWithDifferentUnits() {
+        MetricNameCache cache = new MetricNameCache(10);
+
+        assertEquals("Component/Network/Bytes[count]", cache.get("Network/Bytes", "count"));
+        assertEquals("Component/Network/Bytes[bytes]", cache.get("Network/Bytes", "bytes"));
+        assertEquals("Component/Network/Bytes[count]", cache.get("Network/Bytes", "count"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedNamesAreEvicted() {
+        MetricNameCache cache = new MetricNameCache(2);
+
+        String first = cache.get("First", "count");
+        cache.get("Second", "count");
+        // reporting First again makes Second the least recently used
+        assertSame(first, cache.get("First", "count"));
+        cache.get("Third", "count");
+
+        assertEquals(2, cache.size());
+        assertEquals("Component/Second[count]", cache.get("Second", "count"));
+        assertEquals(2, cache.size());
+    }
+}